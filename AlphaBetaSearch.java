@@ -0,0 +1,533 @@
+package games.tictactoe;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Budget of a single search: time in milliseconds and number of nodes,
+ * 0 means no limit
+ */
+class SearchLimits {
+	public static final SearchLimits UNLIMITED = new SearchLimits(0, 0);
+	
+	private final long timeMillis;
+	private final long maxNodes;
+	
+	public SearchLimits(long timeMillis, long maxNodes) {
+		this.timeMillis = timeMillis;
+		this.maxNodes = maxNodes;
+	}
+	
+	public static SearchLimits ofMillis(long timeMillis) {
+		return new SearchLimits(timeMillis, 0);
+	}
+	
+	public static SearchLimits ofNodes(long maxNodes) {
+		return new SearchLimits(0, maxNodes);
+	}
+	
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+	
+	public long getMaxNodes() {
+		return maxNodes;
+	}
+	
+	public boolean isUnlimited() {
+		return timeMillis == 0 && maxNodes == 0;
+	}
+	
+	/**
+	 * @param elapsedMillis
+	 * @param nodes
+	 * @return limits left after given time and nodes were spent, a set limit
+	 * keeps at least one millisecond or node so that it does not become unlimited
+	 */
+	public SearchLimits remaining(long elapsedMillis, long nodes) {
+		return new SearchLimits(timeMillis == 0 ? 0 : Math.max(1, timeMillis - elapsedMillis),
+				maxNodes == 0 ? 0 : Math.max(1, maxNodes - nodes));
+	}
+	
+	@Override
+	public String toString() {
+		return "limits: " + (timeMillis == 0 ? "no time limit" : timeMillis + " ms") + ", "
+				+ (maxNodes == 0 ? "no node limit" : maxNodes + " nodes");
+	}
+}
+
+/**
+ * Negamax search with alpha-beta pruning and iterative deepening
+ *
+ * Scores are given from the point of view of the player to move.
+ * Won position is worth WIN_SCORE minus number of moves needed to win,
+ * so faster wins (and slower losses) are preferred.
+ *
+ * Moves are tried in order: move from the transposition table, moves
+ * completing a line of the player to move or of the opponent (taken from
+ * the threat index of the board), killer moves of the current ply, moves
+ * with best history, then cells lying on most lines (centre and corners
+ * in the standard game).
+ *
+ * All symmetric images of a position share one transposition table entry,
+ * and moves equivalent under symmetries of the current position are
+ * searched only once.
+ *
+ * Search goes one ply deeper with each iteration until the game tree is
+ * solved or the search limits run out. The move found by the last
+ * completed iteration is returned. Positions on the depth horizon are
+ * scored by the static evaluation kept by the board.
+ *
+ * Search does not allocate per node: moves are played and taken back
+ * on a single working copy of the board, cells (row * dim + col) and
+ * their ordering keys are kept in arrays allocated once for every ply.
+ *
+ * In k-in-a-row games only cells near placed signs are searched, which keeps
+ * the branching factor of large boards low.
+ */
+class AlphaBetaSearch {
+	public static final int WIN_SCORE = 30000;
+	public static final int DRAW_SCORE = 0;
+	// Scores above this value are wins in a known number of moves
+	public static final int WIN_THRESHOLD = WIN_SCORE - 10000;
+	static final int INFINITY = WIN_SCORE + 1;
+	private static final int EVAL_LIMIT = WIN_THRESHOLD - 1;
+
+	private static final int TT_MOVE_KEY = Integer.MAX_VALUE;
+	private static final int WIN_MOVE_KEY = TT_MOVE_KEY - 1;
+	private static final int BLOCK_MOVE_KEY = TT_MOVE_KEY - 2;
+	private static final int KILLER_1_BONUS = 1 << 30;
+	private static final int KILLER_2_BONUS = 1 << 29;
+	private static final int HISTORY_LIMIT = 1 << 24;
+	// Nodes searched between time limit checks
+	private static final int CHECK_INTERVAL = 1024;
+
+	private final TranspositionTable table;
+	// Set by parallel search to stop all its workers, null if not shared
+	private final AtomicBoolean stop;
+	private Symmetry symmetry;
+	private int dim;
+	private int winLength;
+	private int[] staticOrder;
+	// Two killer cells per ply, -1 if not set
+	private int[][] killers;
+	// History heuristic [player][cell], PLAYER_X on index 0
+	private int[][] history;
+	// Moves and their ordering keys for every ply
+	private int[][] moveStack;
+	private int[][] keyStack;
+	private long nodes;
+	private int completedDepth;
+	// Limits are checked only once the first iteration has completed
+	private boolean abortable;
+	private long deadline;
+	private long maxNodes;
+	// Transposition table age of the current search
+	private int age;
+
+	/*
+	 * Thrown when search limits run out in the middle of an iteration
+	 */
+	static class SearchAborted extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		SearchAborted() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * @param table transposition table, can be shared between searches
+	 */
+	public AlphaBetaSearch(TranspositionTable table) {
+		this(table, null);
+	}
+
+	/**
+	 * @param table transposition table, can be shared between searches
+	 * @param stop flag which aborts the search when set
+	 */
+	public AlphaBetaSearch(TranspositionTable table, AtomicBoolean stop) {
+		this.table = table;
+		this.stop = stop;
+	}
+
+	/**
+	 * Find the best move for the player to move searching the whole game tree
+	 *
+	 * @param board
+	 * @param player
+	 * @return the best move with score given from PLAYER_X point of view
+	 * @throws InterruptedException
+	 */
+	public Move findBestMove(TTTBoard board, Status player) throws InterruptedException {
+		return findBestMove(board, player, SearchLimits.UNLIMITED);
+	}
+
+	/**
+	 * Find the best move for the player to move within given limits
+	 *
+	 * @param board
+	 * @param player
+	 * @param limits
+	 * @return the best move found by the last completed iteration with score
+	 * given from PLAYER_X point of view or null if there is no move
+	 * @throws InterruptedException
+	 */
+	public Move findBestMove(TTTBoard board, Status player, SearchLimits limits) throws InterruptedException {
+		TTTBoard work = board.clone();
+		startSearch(work, deadline(limits), limits.getMaxNodes() > 0 ? limits.getMaxNodes() : Long.MAX_VALUE, false,
+				table.newSearch());
+
+		// Without limits the whole tree is searched at once
+		int firstDepth = limits.isUnlimited() ? work.getEmptyCount() : 1;
+		Move bestMove = null;
+		for (int depth = firstDepth; depth <= work.getEmptyCount(); depth++) {
+			Move move;
+			try {
+				move = searchRoot(work, player, depth);
+			} catch (SearchAborted e) {
+				break;
+			}
+			if (move == null)
+				break;
+			bestMove = move;
+			completedDepth = depth;
+			abortable = true;
+			// Stop as soon as the game result is known
+			if (Math.abs(move.getScore()) > WIN_THRESHOLD)
+				break;
+		}
+		return bestMove;
+	}
+
+	/**
+	 * @return depth of the last completed iteration
+	 */
+	public int getCompletedDepth() {
+		return completedDepth;
+	}
+
+	/**
+	 * @return number of nodes visited by the last search
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	private Move searchRoot(TTTBoard board, Status player, int depth) throws InterruptedException {
+		int count = orderMoves(board, player, 0, probeMove(board, player));
+		int[] moves = moveStack[0];
+		int alpha = -INFINITY;
+		int bestCell = -1;
+		for (int i = 0; i < count; i++) {
+			int score = scoreMove(board, moves[i], player, 0, depth, alpha, INFINITY);
+			if (bestCell < 0 || score > alpha) {
+				bestCell = moves[i];
+				alpha = score;
+			}
+		}
+
+		if (bestCell < 0)
+			return null;
+		Move bestMove = new Move(bestCell / dim, bestCell % dim);
+		storeRoot(board, player, depth, alpha, bestMove);
+		return bestMove;
+	}
+
+	static long deadline(SearchLimits limits) {
+		return limits.getTimeMillis() > 0 ? System.currentTimeMillis() + limits.getTimeMillis() : Long.MAX_VALUE;
+	}
+
+	/*
+	 * Methods below let ParallelSearch drive root iterations itself
+	 */
+
+	/*
+	 * Prepare for searching new position, limits are checked only if abortable,
+	 * entries are stored with the table age of the search
+	 */
+	void startSearch(TTTBoard board, long deadline, long maxNodes, boolean abortable, int age) {
+		prepare(board);
+		this.age = age;
+		symmetry = board.getSymmetry();
+		completedDepth = 0;
+		this.abortable = abortable;
+		this.deadline = deadline;
+		this.maxNodes = maxNodes;
+	}
+
+	/*
+	 * @return root moves, the best one from previous iteration first
+	 */
+	List<Move> rootMoves(TTTBoard board, Status player) {
+		int count = orderMoves(board, player, 0, probeMove(board, player));
+		List<Move> moves = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+			moves.add(new Move(moveStack[0][i] / dim, moveStack[0][i] % dim));
+		return moves;
+	}
+
+	/*
+	 * @return score of root move from the point of view of player
+	 */
+	int searchRootMove(TTTBoard board, Move move, Status player, int depth, int alpha, int beta) throws InterruptedException {
+		return scoreMove(board, cellOf(move), player, 0, depth, alpha, beta);
+	}
+
+	/*
+	 * Save result of completed iteration and set score of the best move
+	 * to the PLAYER_X point of view
+	 */
+	void storeRoot(TTTBoard board, Status player, int depth, int score, Move bestMove) {
+		int s = board.getCanonicalSymmetry();
+		table.store(board.getSymmetricHash(s, player), score, TranspositionTable.BOUND_EXACT, depth,
+				symmetry.apply(s, cellOf(bestMove)), age);
+		bestMove.setScore(player == Status.PLAYER_X ? score : -score);
+	}
+
+	private void prepare(TTTBoard board) {
+		nodes = 0;
+		if (dim == board.getDimension() && winLength == board.getWinLength())
+			return;
+
+		dim = board.getDimension();
+		winLength = board.getWinLength();
+		int cells = dim * dim;
+		killers = new int[cells + 1][2];
+		for (int[] k : killers)
+			Arrays.fill(k, -1);
+		history = new int[2][cells];
+		// Rows are allocated when the ply is reached for the first time
+		moveStack = new int[cells + 1][];
+		keyStack = new int[cells + 1][];
+
+		// Cells on most lines go first, then the ones closer to the centre
+		staticOrder = new int[cells];
+		for (int row = 0; row < dim; row++)
+			for (int col = 0; col < dim; col++) {
+				int cell = row * dim + col;
+				int distance = Math.abs(2 * row - dim + 1) + Math.abs(2 * col - dim + 1);
+				staticOrder[cell] = board.getLineCount(cell) * 4 * dim - distance;
+			}
+	}
+
+	private int negamax(TTTBoard board, Status player, int ply, int depth, int alpha, int beta) throws InterruptedException {
+		if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+		if (++nodes % CHECK_INTERVAL == 0 || nodes >= maxNodes)
+			checkLimits();
+		if (depth == 0)
+			return evaluate(board, player);
+
+		// Mate distance pruning: no score can be better than win on the next move
+		alpha = Math.max(alpha, -(WIN_SCORE - ply));
+		beta = Math.min(beta, WIN_SCORE - ply - 1);
+		if (alpha >= beta)
+			return alpha;
+
+		int s = board.getCanonicalSymmetry();
+		long key = board.getSymmetricHash(s, player);
+		long entry = table.probe(key);
+		int ttMove = TranspositionTable.NO_MOVE;
+		if (entry != 0) {
+			ttMove = tableMove(board, s, entry);
+			if (TranspositionTable.depth(entry) >= depth) {
+				int score = fromTable(TranspositionTable.score(entry), ply);
+				switch (TranspositionTable.bound(entry)) {
+				case TranspositionTable.BOUND_EXACT:
+					return score;
+				case TranspositionTable.BOUND_LOWER:
+					alpha = Math.max(alpha, score);
+					break;
+				case TranspositionTable.BOUND_UPPER:
+					beta = Math.min(beta, score);
+					break;
+				}
+				if (alpha >= beta)
+					return score;
+			}
+		}
+
+		int originalAlpha = alpha;
+		int best = -INFINITY;
+		int bestCell = TranspositionTable.NO_MOVE;
+		int count = orderMoves(board, player, ply, ttMove);
+		int[] moves = moveStack[ply];
+		for (int i = 0; i < count; i++) {
+			int cell = moves[i];
+			int score = scoreMove(board, cell, player, ply, depth, alpha, beta);
+			if (score > best) {
+				best = score;
+				bestCell = cell;
+			}
+			if (best > alpha)
+				alpha = best;
+			if (alpha >= beta) {
+				storeCutoff(board, player, ply, cell);
+				break;
+			}
+		}
+
+		int bound = best <= originalAlpha ? TranspositionTable.BOUND_UPPER
+				: best >= beta ? TranspositionTable.BOUND_LOWER : TranspositionTable.BOUND_EXACT;
+		if (bestCell != TranspositionTable.NO_MOVE)
+			bestCell = symmetry.apply(s, bestCell);
+		table.store(key, toTable(best, ply), bound, depth, bestCell, age);
+		return best;
+	}
+
+	/*
+	 * Static evaluation from the point of view of player, always
+	 * below scores of proven wins
+	 */
+	private static int evaluate(TTTBoard board, Status player) {
+		int score = Math.max(-EVAL_LIMIT, Math.min(EVAL_LIMIT, board.getEvaluation()));
+		return player == Status.PLAYER_X ? score : -score;
+	}
+
+	private void checkLimits() {
+		if (stop != null && stop.get())
+			throw new SearchAborted();
+		if (abortable && (nodes >= maxNodes || System.currentTimeMillis() >= deadline))
+			throw new SearchAborted();
+	}
+
+	private int scoreMove(TTTBoard board, int cell, Status player, int ply, int depth, int alpha, int beta) throws InterruptedException {
+		board.makeMove(cell, player);
+		try {
+			Status gameResult = board.getGameResult();
+			if (gameResult == player)
+				return WIN_SCORE - (ply + 1);
+			if (gameResult == Status.DRAW)
+				return DRAW_SCORE;
+			return -negamax(board, ModelUtils.switch_player(player), ply + 1, depth - 1, -beta, -alpha);
+		} finally {
+			board.undoMove(cell);
+		}
+	}
+
+	private void storeCutoff(TTTBoard board, Status player, int ply, int cell) {
+		if (killers[ply][0] != cell) {
+			killers[ply][1] = killers[ply][0];
+			killers[ply][0] = cell;
+		}
+		int remaining = board.getEmptyCount();
+		int[] playerHistory = history[playerIndex(player)];
+		playerHistory[cell] += remaining * remaining;
+		// Age the history so it never outgrows killer bonuses
+		if (playerHistory[cell] > HISTORY_LIMIT)
+			for (int i = 0; i < playerHistory.length; i++)
+				playerHistory[i] >>= 1;
+	}
+
+	/*
+	 * Fill move stack of given ply with moves sorted by ordering key
+	 * @return number of moves
+	 */
+	private int orderMoves(TTTBoard board, Status player, int ply, int ttMove) {
+		if (moveStack[ply] == null) {
+			moveStack[ply] = new int[dim * dim];
+			keyStack[ply] = new int[dim * dim];
+		}
+		int[] moves = moveStack[ply];
+		int[] keys = keyStack[ply];
+		int count = board.getCandidateCells(moves);
+
+		int stabilizer = board.getStabilizer();
+		if (stabilizer != 0) {
+			int n = 0;
+			for (int i = 0; i < count; i++)
+				if (!isSymmetricDuplicate(moves[i], stabilizer))
+					moves[n++] = moves[i];
+			count = n;
+		}
+
+		int[] playerHistory = history[playerIndex(player)];
+		int[] plyKillers = killers[ply];
+		Status opponent = ModelUtils.switch_player(player);
+		boolean threatened = board.getThreatCell(opponent) >= 0;
+		for (int i = 0; i < count; i++) {
+			int cell = moves[i];
+			int key = playerHistory[cell] + staticOrder[cell];
+			if (cell == ttMove)
+				key = TT_MOVE_KEY;
+			else if (board.getThreats(cell, player) > 0)
+				key = WIN_MOVE_KEY;
+			else if (threatened && board.getThreats(cell, opponent) > 0)
+				key = BLOCK_MOVE_KEY;
+			else if (cell == plyKillers[0])
+				key += KILLER_1_BONUS;
+			else if (cell == plyKillers[1])
+				key += KILLER_2_BONUS;
+			keys[i] = key;
+		}
+
+		// Insertion sort, highest ordering key first
+		for (int i = 1; i < count; i++) {
+			int key = keys[i], cell = moves[i];
+			int j = i - 1;
+			while (j >= 0 && keys[j] < key) {
+				keys[j + 1] = keys[j];
+				moves[j + 1] = moves[j];
+				j--;
+			}
+			keys[j + 1] = key;
+			moves[j + 1] = cell;
+		}
+		return count;
+	}
+
+	/*
+	 * Position is unchanged by symmetries in stabilizer, so of all
+	 * cells they map the move to only the lowest one is searched
+	 */
+	private boolean isSymmetricDuplicate(int cell, int stabilizer) {
+		for (int s = 1; s < Symmetry.COUNT; s++)
+			if ((stabilizer & (1 << s)) != 0 && symmetry.apply(s, cell) < cell)
+				return true;
+		return false;
+	}
+
+	private int probeMove(TTTBoard board, Status player) {
+		int s = board.getCanonicalSymmetry();
+		long entry = table.probe(board.getSymmetricHash(s, player));
+		return entry == 0 ? TranspositionTable.NO_MOVE : tableMove(board, s, entry);
+	}
+
+	/*
+	 * Table keeps moves of the canonical position, map it back
+	 * to this board and guard against hash collisions
+	 */
+	private int tableMove(TTTBoard board, int s, long entry) {
+		int cell = TranspositionTable.move(entry);
+		if (cell < 0 || cell >= dim * dim)
+			return TranspositionTable.NO_MOVE;
+		cell = symmetry.invert(s, cell);
+		if (board.getGridStatus(cell / dim, cell % dim) != Status.EMPTY)
+			return TranspositionTable.NO_MOVE;
+		return cell;
+	}
+
+	/*
+	 * Win scores are stored as distance from the stored node, not from the root
+	 */
+	private static int toTable(int score, int ply) {
+		if (score > WIN_THRESHOLD) return score + ply;
+		if (score < -WIN_THRESHOLD) return score - ply;
+		return score;
+	}
+
+	private static int fromTable(int score, int ply) {
+		if (score > WIN_THRESHOLD) return score - ply;
+		if (score < -WIN_THRESHOLD) return score + ply;
+		return score;
+	}
+
+	private int cellOf(Move move) {
+		return move.getRow() * dim + move.getCol();
+	}
+
+	private static int playerIndex(Status player) {
+		return player == Status.PLAYER_X ? 0 : 1;
+	}
+}
@@ -0,0 +1,22 @@
+package games.tictactoe;
+
+/**
+ * Receives changes of a TTTBoard, implemented by views of the board
+ *
+ * Listeners are called on the thread changing the board, so Swing views
+ * have to pass updates to the event dispatch thread (repaint does).
+ */
+interface BoardListener {
+	/**
+	 * Sign was placed on the cell (row, col)
+	 * @param row
+	 * @param col
+	 * @param player
+	 */
+	void cellChanged(int row, int col, Status player);
+
+	/**
+	 * All cells were cleared to start new game
+	 */
+	void boardReset();
+}
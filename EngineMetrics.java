@@ -0,0 +1,351 @@
+package games.tictactoe;
+
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event committed for every move search of TTTModel.getBestMove
+ */
+@Name("games.tictactoe.Search")
+@Label("Move Search")
+@Category("Tic Tac Toe")
+@Description("Search of the best move by the engine")
+class SearchEvent extends Event {
+	@Label("Board Dimension")
+	int dimension;
+
+	@Label("Win Length")
+	int winLength;
+
+	@Label("Threads")
+	int threads;
+
+	@Label("Nodes")
+	long nodes;
+
+	@Label("Depth")
+	int depth;
+
+	@Label("Table Hits")
+	long tableHits;
+
+	@Label("Table Misses")
+	long tableMisses;
+
+	@Label("Move")
+	String move;
+
+	@Label("Cancelled")
+	boolean cancelled;
+}
+
+/**
+ * JFR event committed for every proof-number search of a forced win
+ * made by TTTModel.getBestMove before the move search
+ */
+@Name("games.tictactoe.ProofSearch")
+@Label("Proof Search")
+@Category("Tic Tac Toe")
+@Description("Proof-number search of a forced win")
+class ProofSearchEvent extends Event {
+	@Label("Board Dimension")
+	int dimension;
+
+	@Label("Win Length")
+	int winLength;
+
+	@Label("Nodes")
+	long nodes;
+
+	@Label("Proved")
+	boolean proved;
+
+	@Label("Cancelled")
+	boolean cancelled;
+}
+
+/**
+ * Counters of the engine work since start (or the last reset)
+ *
+ * Every move search of TTTModel.getBestMove is recorded here and as
+ * a SearchEvent for Java Flight Recorder, proof-number searches for
+ * forced wins run before it separately and as a ProofSearchEvent.
+ * Counters can be read with snapshot() or printed periodically with
+ * startDump(), or from start when system property
+ * "tictactoe.metrics.dump" is set to the period in milliseconds.
+ */
+class EngineMetrics {
+	private static final LongAdder searches = new LongAdder();
+	private static final LongAdder tableMoves = new LongAdder();
+	private static final LongAdder cancellations = new LongAdder();
+	private static final LongAdder nodes = new LongAdder();
+	private static final LongAdder depths = new LongAdder();
+	private static final LongAdder searchNanos = new LongAdder();
+	private static final LongAccumulator maxSearchNanos = new LongAccumulator(Math::max, 0);
+	private static final LongAdder tableHits = new LongAdder();
+	private static final LongAdder tableMisses = new LongAdder();
+	private static final LongAdder proofSearches = new LongAdder();
+	private static final LongAdder proofCancellations = new LongAdder();
+	private static final LongAdder provedWins = new LongAdder();
+	private static final LongAdder proofNodes = new LongAdder();
+	private static final LongAdder proofNanos = new LongAdder();
+
+	private static ScheduledExecutorService dumper;
+	private static ScheduledFuture<?> dump;
+
+	static {
+		long period = Long.getLong("tictactoe.metrics.dump", 0);
+		if (period > 0)
+			startDump(period, System.out);
+	}
+
+	private EngineMetrics() {
+	}
+
+	/**
+	 * Values of all counters at one moment
+	 */
+	static class Snapshot {
+		private final long searches, tableMoves, cancellations, nodes, depths;
+		private final long searchNanos, maxSearchNanos, tableHits, tableMisses;
+		private final long proofSearches, proofCancellations, provedWins;
+		private final long proofNodes, proofNanos;
+
+		private Snapshot() {
+			searches = EngineMetrics.searches.sum();
+			tableMoves = EngineMetrics.tableMoves.sum();
+			cancellations = EngineMetrics.cancellations.sum();
+			nodes = EngineMetrics.nodes.sum();
+			depths = EngineMetrics.depths.sum();
+			searchNanos = EngineMetrics.searchNanos.sum();
+			maxSearchNanos = EngineMetrics.maxSearchNanos.get();
+			tableHits = EngineMetrics.tableHits.sum();
+			tableMisses = EngineMetrics.tableMisses.sum();
+			proofSearches = EngineMetrics.proofSearches.sum();
+			proofCancellations = EngineMetrics.proofCancellations.sum();
+			provedWins = EngineMetrics.provedWins.sum();
+			proofNodes = EngineMetrics.proofNodes.sum();
+			proofNanos = EngineMetrics.proofNanos.sum();
+		}
+
+		/**
+		 * @return number of completed searches
+		 */
+		public long getSearches() {
+			return searches;
+		}
+
+		/**
+		 * @return number of moves found without search: immediate wins and
+		 * moves read from precomputed tables
+		 */
+		public long getTableMoves() {
+			return tableMoves;
+		}
+
+		/**
+		 * @return number of move searches interrupted before completion
+		 */
+		public long getCancellations() {
+			return cancellations;
+		}
+
+		/**
+		 * @return nodes visited by completed searches, the ones measured by nodes per second
+		 */
+		public long getNodes() {
+			return nodes;
+		}
+
+		public double getNodesPerSecond() {
+			return searchNanos == 0 ? 0 : nodes * 1e9 / searchNanos;
+		}
+
+		/**
+		 * @return average depth of the last completed iteration
+		 */
+		public double getAverageDepth() {
+			return searches == 0 ? 0 : (double) depths / searches;
+		}
+
+		public double getAverageSearchMillis() {
+			return searches == 0 ? 0 : searchNanos / 1e6 / searches;
+		}
+
+		public double getMaxSearchMillis() {
+			return maxSearchNanos / 1e6;
+		}
+
+		/**
+		 * @return fraction of transposition table probes finding an entry
+		 */
+		public double getTableHitRate() {
+			long probes = tableHits + tableMisses;
+			return probes == 0 ? 0 : (double) tableHits / probes;
+		}
+
+		/**
+		 * @return number of proof-number searches for a forced win
+		 */
+		public long getProofSearches() {
+			return proofSearches;
+		}
+
+		/**
+		 * @return number of proof-number searches interrupted before completion
+		 */
+		public long getProofCancellations() {
+			return proofCancellations;
+		}
+
+		/**
+		 * @return number of moves played because their win was proved
+		 */
+		public long getProvedWins() {
+			return provedWins;
+		}
+
+		/**
+		 * @return nodes expanded by proof-number searches
+		 */
+		public long getProofNodes() {
+			return proofNodes;
+		}
+
+		public double getAverageProofMillis() {
+			return proofSearches == 0 ? 0 : proofNanos / 1e6 / proofSearches;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Engine: %d searches, %d table moves, %d cancelled, %d nodes, %.0f nodes/s, "
+					+ "depth %.1f, %.1f ms per search (max %.1f ms), TT hit rate %.1f%%, "
+					+ "%d proof searches, %d cancelled, %d proved wins, %d proof nodes, "
+					+ "%.1f ms per proof search",
+					searches, tableMoves, cancellations, nodes, getNodesPerSecond(), getAverageDepth(),
+					getAverageSearchMillis(), getMaxSearchMillis(), 100 * getTableHitRate(),
+					proofSearches, proofCancellations, provedWins, proofNodes, getAverageProofMillis());
+		}
+	}
+
+	/**
+	 * @return current values of all counters
+	 */
+	public static Snapshot snapshot() {
+		return new Snapshot();
+	}
+
+	/**
+	 * Record finished or cancelled search, nodes, depth and time are counted
+	 * for finished searches only so that cancelled ones do not skew nodes per
+	 * second; the event carries them in both cases
+	 *
+	 * @param event begun event with board fields set
+	 * @param nodes
+	 * @param depth depth of the last completed iteration
+	 * @param nanos search time
+	 * @param hits transposition table hits during the search
+	 * @param misses transposition table misses during the search
+	 * @param cancelled true if search was interrupted
+	 */
+	static void recordSearch(SearchEvent event, long nodes, int depth, long nanos,
+			long hits, long misses, boolean cancelled) {
+		if (cancelled) {
+			cancellations.increment();
+		} else {
+			searches.increment();
+			EngineMetrics.nodes.add(nodes);
+			depths.add(depth);
+			searchNanos.add(nanos);
+			maxSearchNanos.accumulate(nanos);
+		}
+		tableHits.add(hits);
+		tableMisses.add(misses);
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.nodes = nodes;
+			event.depth = depth;
+			event.tableHits = hits;
+			event.tableMisses = misses;
+			event.cancelled = cancelled;
+			event.commit();
+		}
+	}
+
+	static void recordTableMove() {
+		tableMoves.increment();
+	}
+
+	/**
+	 * Record finished or cancelled proof-number search
+	 *
+	 * @param event begun event with board fields set
+	 * @param nodes expanded nodes
+	 * @param nanos search time
+	 * @param proved true if a forced win was found
+	 * @param cancelled true if search was interrupted
+	 */
+	static void recordProofSearch(ProofSearchEvent event, long nodes, long nanos,
+			boolean proved, boolean cancelled) {
+		if (cancelled)
+			proofCancellations.increment();
+		else
+			proofSearches.increment();
+		if (proved)
+			provedWins.increment();
+		proofNodes.add(nodes);
+		proofNanos.add(nanos);
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.nodes = nodes;
+			event.proved = proved;
+			event.cancelled = cancelled;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Set all counters to zero
+	 */
+	public static void reset() {
+		for (LongAdder adder : new LongAdder[] { searches, tableMoves, cancellations, nodes,
+				depths, searchNanos, tableHits, tableMisses, proofSearches, proofCancellations,
+				provedWins, proofNodes, proofNanos })
+			adder.reset();
+		maxSearchNanos.reset();
+	}
+
+	/**
+	 * Print snapshot periodically, replaces previous dump
+	 *
+	 * @param periodMillis
+	 * @param out
+	 */
+	public static synchronized void startDump(long periodMillis, PrintStream out) {
+		stopDump();
+		if (dumper == null)
+			dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "Engine metrics dump");
+				thread.setDaemon(true);
+				return thread;
+			});
+		dump = dumper.scheduleAtFixedRate(() -> out.println(snapshot()),
+				periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public static synchronized void stopDump() {
+		if (dump != null) {
+			dump.cancel(false);
+			dump = null;
+		}
+	}
+}
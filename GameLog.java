@@ -0,0 +1,317 @@
+package games.tictactoe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Append-only binary log of finished games
+ *
+ * Games are written to files game-NNNNNN.log in the log directory, a new
+ * file is started when the current one would grow over the size limit.
+ * Games are collected in memory and written in batches, call flush() or
+ * close() to write the rest.
+ *
+ * File starts with MAGIC, every game is stored as:
+ * <pre>
+ * dim:u8 winLength:u8 players:u8 moveCount:u16 moves
+ * </pre>
+ * players holds Status ordinal of the starting player in low 4 bits and
+ * of the result in high 4 bits. Every move is a cell (row * dim + col)
+ * taking 1 byte, or 2 bytes on boards with more than 256 cells. Players
+ * alternate, so moves do not store the player.
+ */
+class GameLog implements Closeable {
+	static final int MAGIC = 0x5454544C; // "TTTL"
+	static final int GAME_HEADER_SIZE = 5;
+	private static final int BATCH_SIZE = 64 * 1024;
+	private static final Status[] STATUSES = Status.values();
+
+	private final Path directory;
+	private final long maxFileSize;
+	private final ByteBuffer batch = ByteBuffer.allocate(BATCH_SIZE);
+	private FileChannel file;
+	private long fileSize;
+	private int fileNumber;
+	private long games;
+
+	/**
+	 * @return directory of the game log: system property "tictactoe.games",
+	 * ~/.tictactoe/games by default
+	 */
+	public static Path defaultDirectory() {
+		String dir = System.getProperty("tictactoe.games");
+		return dir != null ? Paths.get(dir) : Paths.get(System.getProperty("user.home"), ".tictactoe", "games");
+	}
+
+	/**
+	 * @param directory directory with log files, created if needed
+	 * @param maxFileSize size of a file after which the next one is started
+	 * @throws IOException
+	 */
+	public GameLog(Path directory, long maxFileSize) throws IOException {
+		this.directory = directory;
+		this.maxFileSize = Math.max(maxFileSize, BATCH_SIZE);
+		Files.createDirectories(directory);
+		List<Path> files = files(directory);
+		// Continue numbering after existing files, never append to them
+		fileNumber = files.isEmpty() ? 0 : number(files.get(files.size() - 1));
+	}
+
+	/**
+	 * Append finished game
+	 *
+	 * @param dim
+	 * @param winLength
+	 * @param startingPlayer
+	 * @param result
+	 * @param moves cells in order they were played
+	 * @param moveCount number of moves
+	 * @throws IOException
+	 */
+	public synchronized void record(int dim, int winLength, Status startingPlayer, Status result,
+			int[] moves, int moveCount) throws IOException {
+		int size = GAME_HEADER_SIZE + moveCount * cellSize(dim);
+		if (batch.remaining() < size)
+			writeBatch();
+		if (size > batch.capacity())
+			throw new IllegalArgumentException("Game of " + moveCount + " moves does not fit the batch");
+
+		batch.put((byte) dim).put((byte) winLength)
+				.put((byte) (startingPlayer.ordinal() | result.ordinal() << 4))
+				.putShort((short) moveCount);
+		for (int i = 0; i < moveCount; i++) {
+			if (cellSize(dim) == 1)
+				batch.put((byte) moves[i]);
+			else
+				batch.putShort((short) moves[i]);
+		}
+		games++;
+	}
+
+	/**
+	 * @return number of games recorded by this log
+	 */
+	public synchronized long getGames() {
+		return games;
+	}
+
+	/**
+	 * Write collected games to the file
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		writeBatch();
+		if (file != null)
+			file.force(false);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		writeBatch();
+		if (file != null) {
+			file.close();
+			file = null;
+		}
+	}
+
+	private void writeBatch() throws IOException {
+		if (batch.position() == 0)
+			return;
+		if (file == null || fileSize + batch.position() > maxFileSize) {
+			if (file != null)
+				file.close();
+			fileNumber++;
+			file = FileChannel.open(directory.resolve(String.format("game-%06d.log", fileNumber)),
+					StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			ByteBuffer magic = ByteBuffer.allocate(4).putInt(0, MAGIC);
+			file.write(magic);
+			fileSize = 4;
+		}
+		batch.flip();
+		while (batch.hasRemaining())
+			fileSize += file.write(batch);
+		batch.clear();
+	}
+
+	static int cellSize(int dim) {
+		return dim * dim > 256 ? 2 : 1;
+	}
+
+	/**
+	 * @param directory
+	 * @return log files in the order they were written
+	 * @throws IOException
+	 */
+	static List<Path> files(Path directory) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (Stream<Path> list = Files.list(directory)) {
+			list.filter(path -> path.getFileName().toString().matches("game-\\d+\\.log")).forEach(files::add);
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	private static int number(Path file) {
+		String name = file.getFileName().toString();
+		return Integer.parseInt(name.substring(5, name.length() - 4));
+	}
+
+	/**
+	 * Reads games of all log files in a directory one by one from memory
+	 * mapped files, accessors read the current game directly from the file
+	 */
+	static class Cursor {
+		private final List<Path> files;
+		private int nextFile;
+		private MappedByteBuffer buffer;
+		private int game = -1;
+		private int next;
+
+		/**
+		 * @param directory
+		 * @throws IOException
+		 */
+		Cursor(Path directory) throws IOException {
+			files = files(directory);
+		}
+
+		/**
+		 * Move to the next game
+		 * @return false if there are no more games
+		 * @throws IOException
+		 */
+		public boolean next() throws IOException {
+			while (buffer == null || next + GAME_HEADER_SIZE > buffer.limit()) {
+				if (nextFile == files.size())
+					return false;
+				try (FileChannel channel = FileChannel.open(files.get(nextFile++), StandardOpenOption.READ)) {
+					buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				}
+				if (buffer.limit() < 4 || buffer.getInt(0) != MAGIC)
+					throw new IOException(files.get(nextFile - 1) + " is not a game log");
+				next = 4;
+			}
+			game = next;
+			next += GAME_HEADER_SIZE + getMoveCount() * cellSize(getDimension());
+			return true;
+		}
+
+		public int getDimension() {
+			return buffer.get(game) & 0xFF;
+		}
+
+		public int getWinLength() {
+			return buffer.get(game + 1) & 0xFF;
+		}
+
+		public Status getStartingPlayer() {
+			return STATUSES[buffer.get(game + 2) & 0xF];
+		}
+
+		public Status getResult() {
+			return STATUSES[(buffer.get(game + 2) >>> 4) & 0xF];
+		}
+
+		public int getMoveCount() {
+			return buffer.getShort(game + 3) & 0xFFFF;
+		}
+
+		/**
+		 * @param i
+		 * @return cell of the i-th move
+		 */
+		public int getMove(int i) {
+			int offset = game + GAME_HEADER_SIZE;
+			return cellSize(getDimension()) == 1 ? buffer.get(offset + i) & 0xFF
+					: buffer.getShort(offset + 2 * i) & 0xFFFF;
+		}
+
+		/**
+		 * @return board after all moves of the current game
+		 */
+		public TTTBoard replay() {
+			TTTBoard board = new TTTBoard(getDimension(), getWinLength());
+			Status player = getStartingPlayer();
+			for (int i = 0; i < getMoveCount(); i++) {
+				board.makeMove(getMove(i), player);
+				player = ModelUtils.switch_player(player);
+			}
+			return board;
+		}
+	}
+
+	/**
+	 * Print statistics of games in the given or default log directory
+	 */
+	public static void main(String[] args) throws IOException {
+		Path directory = args.length > 0 ? Paths.get(args[0]) : defaultDirectory();
+		long start = System.nanoTime();
+		long games = 0, moves = 0, startingWins = 0, secondWins = 0, draws = 0;
+		Cursor cursor = new Cursor(directory);
+		while (cursor.next()) {
+			games++;
+			moves += cursor.getMoveCount();
+			Status result = cursor.getResult();
+			if (result == Status.DRAW)
+				draws++;
+			else if (result == cursor.getStartingPlayer())
+				startingWins++;
+			else if (result != Status.IN_PROGRESS)
+				secondWins++;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d games, %.1f moves per game: starting player won %d, second player won %d, draws %d%n",
+				games, games == 0 ? 0 : (double) moves / games, startingWins, secondWins, draws);
+		System.out.printf("Read in %.2f s, %.0f games/s%n", seconds, games / seconds);
+	}
+}
+
+/**
+ * Records games played on a board to the game log
+ *
+ * Registered as a board listener, or called directly by code making moves
+ * without notifications. Game is written when its result is known,
+ * games abandoned by board reset are not written.
+ */
+class GameRecorder implements BoardListener {
+	private final TTTBoard board;
+	private final GameLog log;
+	private final int[] moves;
+	private int moveCount;
+	private Status startingPlayer;
+
+	GameRecorder(TTTBoard board, GameLog log) {
+		this.board = board;
+		this.log = log;
+		moves = new int[board.getDimension() * board.getDimension()];
+	}
+
+	@Override
+	public void cellChanged(int row, int col, Status player) {
+		if (moveCount == 0)
+			startingPlayer = player;
+		moves[moveCount++] = row * board.getDimension() + col;
+		Status result = board.getGameResult();
+		if (result == Status.IN_PROGRESS)
+			return;
+		try {
+			log.record(board.getDimension(), board.getWinLength(), startingPlayer, result, moves, moveCount);
+		} catch (IOException e) {
+			System.out.println("Cannot record game: " + e);
+		}
+		moveCount = 0;
+	}
+
+	@Override
+	public void boardReset() {
+		moveCount = 0;
+	}
+}
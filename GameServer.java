@@ -0,0 +1,394 @@
+package games.tictactoe;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Non-blocking game server playing the computer side of many games
+ *
+ * All connections are served by a single selector thread, every connection
+ * plays one game at a time. Computer moves are searched by a fixed pool
+ * of engine threads. At most maxPending moves are given to the pool, other
+ * sessions wait in order and are not read until their move is played,
+ * so clients sending faster than engines can play are slowed down by TCP.
+ *
+ * Protocol (all numbers are big-endian, cell is row * dim + col):
+ * <pre>
+ * client: NEW_GAME dim:u8 winLength:u8 computerFirst:u8
+ * client: MOVE cell:u16
+ * server: REPLY cell:u16 status:u8    computer move (NO_CELL if none), Status ordinal after it
+ * server: ERROR code:u8
+ * </pre>
+ * Every request is answered by exactly one reply or error. The engine
+ * error ends the game, the client has to start a new one.
+ *
+ * Clients are not authenticated, so the server listens on the loopback
+ * address unless another one is given.
+ */
+class GameServer {
+	static final byte NEW_GAME = 1;
+	static final byte MOVE = 2;
+	static final byte REPLY = 3;
+	static final byte ERROR = 4;
+
+	static final byte ERROR_BAD_REQUEST = 1;
+	static final byte ERROR_NO_GAME = 2;
+	static final byte ERROR_ILLEGAL_MOVE = 3;
+	static final byte ERROR_ENGINE = 4;
+
+	static final int NO_CELL = 0xFFFF;
+	static final int MAX_DIM = 19;
+	static final int REPLY_SIZE = 4;
+
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private final ExecutorService engine;
+	private final int maxPending;
+	private final SearchLimits limits;
+	private final ThreadLocal<MoveEngine> engines;
+	// Moves given to engine threads, changed only by the selector thread
+	private int pending;
+	private final Deque<Session> waiting = new ArrayDeque<>();
+	private final Queue<Session> finished = new ConcurrentLinkedQueue<>();
+	// Changed only by the selector thread, read by others through getSessions
+	private volatile int sessions;
+	private volatile boolean running = true;
+	private GameLog gameLog;
+
+	/*
+	 * Connection with the game it plays
+	 */
+	private static class Session {
+		final SocketChannel channel;
+		final SelectionKey key;
+		final ByteBuffer in = ByteBuffer.allocate(64);
+		final ByteBuffer out = ByteBuffer.allocate(256);
+		TTTBoard board;
+		Status computer;
+		GameRecorder recorder;
+		// Computer move is being searched, input is not read
+		boolean busy;
+		// Written by the engine thread before the session is queued as finished
+		int engineCell;
+
+		Session(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Server listening on the loopback address
+	 * @param port
+	 * @param threads number of engine threads
+	 * @param maxPending maximum number of moves queued for engine threads
+	 * @param limits search limits of every computer move
+	 * @throws IOException
+	 */
+	public GameServer(int port, int threads, int maxPending, SearchLimits limits) throws IOException {
+		this(InetAddress.getLoopbackAddress(), port, threads, maxPending, limits);
+	}
+
+	/**
+	 * @param address local address to listen on
+	 * @param port
+	 * @param threads number of engine threads
+	 * @param maxPending maximum number of moves queued for engine threads
+	 * @param limits search limits of every computer move
+	 * @throws IOException
+	 */
+	public GameServer(InetAddress address, int port, int threads, int maxPending, SearchLimits limits) throws IOException {
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(address, port), 1024);
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		engine = Executors.newFixedThreadPool(threads);
+		this.maxPending = maxPending;
+		this.limits = limits;
+		TranspositionTable table = new TranspositionTable(64);
+		engines = ThreadLocal.withInitial(() -> new MoveEngine(table));
+	}
+
+	/**
+	 * Record finished games to the given log, call before run
+	 * @param log
+	 */
+	public void setGameLog(GameLog log) {
+		gameLog = log;
+	}
+
+	/**
+	 * @return port the server listens on
+	 */
+	public int getPort() throws IOException {
+		return ((InetSocketAddress) server.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * Serve connections until stop is called
+	 */
+	public void run() throws IOException {
+		try {
+			while (running) {
+				selector.select();
+				for (Session session; (session = finished.poll()) != null; )
+					finishMove(session);
+				while (pending < maxPending && !waiting.isEmpty())
+					submit(waiting.poll());
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable())
+						accept();
+					else
+						serve((Session) key.attachment(), key);
+				}
+			}
+		} finally {
+			engine.shutdownNow();
+			for (SelectionKey key : selector.keys())
+				key.channel().close();
+			selector.close();
+		}
+	}
+
+	public void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = server.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			key.attach(new Session(channel, key));
+			sessions++;
+		}
+	}
+
+	private void serve(Session session, SelectionKey key) {
+		try {
+			if (key.isWritable())
+				flush(session);
+			if (key.isValid() && key.isReadable()) {
+				if (session.channel.read(session.in) < 0) {
+					close(session);
+					return;
+				}
+				process(session);
+			}
+		} catch (IOException e) {
+			close(session);
+		}
+	}
+
+	/*
+	 * Handle complete requests in the input buffer while there is
+	 * room for replies and no computer move is searched
+	 */
+	private void process(Session session) throws IOException {
+		ByteBuffer in = session.in;
+		in.flip();
+		while (!session.busy && in.hasRemaining() && session.out.remaining() >= REPLY_SIZE) {
+			int type = in.get(in.position());
+			int size = type == NEW_GAME ? 4 : type == MOVE ? 3 : -1;
+			if (size < 0) {
+				close(session);
+				return;
+			}
+			if (in.remaining() < size)
+				break;
+			in.get();
+			if (type == NEW_GAME)
+				newGame(session, in.get() & 0xFF, in.get() & 0xFF, in.get() != 0);
+			else
+				move(session, in.getShort() & 0xFFFF);
+		}
+		in.compact();
+		flush(session);
+	}
+
+	private void newGame(Session session, int dim, int winLength, boolean computerFirst) {
+		if (dim < 3 || dim > MAX_DIM || winLength < 3 || winLength > dim) {
+			error(session, ERROR_BAD_REQUEST);
+			return;
+		}
+		session.board = new TTTBoard(dim, winLength);
+		session.computer = computerFirst ? Status.PLAYER_X : Status.PLAYER_O;
+		session.recorder = gameLog != null ? new GameRecorder(session.board, gameLog) : null;
+		if (computerFirst)
+			dispatch(session);
+		else
+			reply(session, NO_CELL);
+	}
+
+	private void move(Session session, int cell) {
+		TTTBoard board = session.board;
+		if (board == null || board.isGameOver()) {
+			error(session, ERROR_NO_GAME);
+			return;
+		}
+		int dim = board.getDimension();
+		if (cell >= dim * dim || board.getGridStatus(cell / dim, cell % dim) != Status.EMPTY) {
+			error(session, ERROR_ILLEGAL_MOVE);
+			return;
+		}
+		play(session, cell, ModelUtils.switch_player(session.computer));
+		if (board.isGameOver())
+			reply(session, NO_CELL);
+		else
+			dispatch(session);
+	}
+
+	private void dispatch(Session session) {
+		session.busy = true;
+		if (pending < maxPending)
+			submit(session);
+		else
+			waiting.add(session);
+	}
+
+	private void submit(Session session) {
+		if (!session.channel.isOpen())
+			return;
+		pending++;
+		engine.execute(() -> {
+			try {
+				session.engineCell = chooseCell(session.board, session.computer);
+			} catch (Exception e) {
+				session.engineCell = -1;
+			}
+			finished.add(session);
+			selector.wakeup();
+		});
+	}
+
+	/*
+	 * Called on engine threads, the board is not used by the selector meanwhile
+	 */
+	private int chooseCell(TTTBoard board, Status player) throws InterruptedException {
+		Move move = engines.get().findBestMove(board, player, limits);
+		return move.getRow() * board.getDimension() + move.getCol();
+	}
+
+	private void finishMove(Session session) {
+		pending--;
+		session.busy = false;
+		if (!session.channel.isOpen())
+			return;
+		if (session.engineCell < 0) {
+			// The computer did not move, so the game cannot go on
+			session.board = null;
+			session.recorder = null;
+			error(session, ERROR_ENGINE);
+		} else {
+			play(session, session.engineCell, session.computer);
+			reply(session, session.engineCell);
+		}
+		try {
+			// Requests sent meanwhile
+			process(session);
+		} catch (IOException e) {
+			close(session);
+		}
+	}
+
+	private void play(Session session, int cell, Status player) {
+		session.board.makeMove(cell, player);
+		if (session.recorder != null) {
+			int dim = session.board.getDimension();
+			session.recorder.cellChanged(cell / dim, cell % dim, player);
+		}
+	}
+
+	private void reply(Session session, int cell) {
+		session.out.put(REPLY).putShort((short) cell).put((byte) session.board.getGameResult().ordinal());
+	}
+
+	private void error(Session session, byte code) {
+		session.out.put(ERROR).put(code);
+	}
+
+	private void flush(Session session) throws IOException {
+		ByteBuffer out = session.out;
+		out.flip();
+		session.channel.write(out);
+		out.compact();
+		if (!session.key.isValid())
+			return;
+		int ops = out.position() > 0 ? SelectionKey.OP_WRITE : 0;
+		if (!session.busy)
+			ops |= SelectionKey.OP_READ;
+		session.key.interestOps(ops);
+	}
+
+	private void close(Session session) {
+		if (!session.channel.isOpen())
+			return;
+		try {
+			session.channel.close();
+		} catch (IOException e) {
+			// Closed anyway
+		}
+		sessions--;
+	}
+
+	/**
+	 * @return number of open connections
+	 */
+	public int getSessions() {
+		return sessions;
+	}
+
+	/**
+	 * Usage: GameServer [-bind address] [-port n] [-threads n] [-pending n] [-nodes n] [-log directory]
+	 */
+	public static void main(String[] args) throws IOException {
+		InetAddress address = InetAddress.getLoopbackAddress();
+		int port = 7777, threads = Runtime.getRuntime().availableProcessors(), pending = 0;
+		long nodes = 20000;
+		String log = null;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-bind": address = InetAddress.getByName(args[++i]); break;
+			case "-port": port = Integer.parseInt(args[++i]); break;
+			case "-threads": threads = Integer.parseInt(args[++i]); break;
+			case "-pending": pending = Integer.parseInt(args[++i]); break;
+			case "-nodes": nodes = Long.parseLong(args[++i]); break;
+			case "-log": log = args[++i]; break;
+			default:
+				System.err.println("Usage: GameServer [-bind address] [-port n] [-threads n] [-pending n] [-nodes n] [-log directory]");
+				System.exit(2);
+			}
+		}
+		GameServer server = new GameServer(address, port, threads, pending > 0 ? pending : 4 * threads,
+				SearchLimits.ofNodes(nodes));
+		if (log != null) {
+			GameLog gameLog = new GameLog(Paths.get(log), 64 * 1024 * 1024);
+			server.setGameLog(gameLog);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					gameLog.close();
+				} catch (IOException e) {
+					System.out.println("Cannot write game log: " + e);
+				}
+			}));
+		}
+		System.out.println("Serving games on " + address.getHostAddress() + " port " + server.getPort()
+				+ " with " + threads + " engine threads");
+		server.run();
+	}
+}
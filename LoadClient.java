@@ -0,0 +1,171 @@
+package games.tictactoe;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Load generator for GameServer
+ *
+ * Opens the given number of sessions on a single selector thread, every
+ * session plays random moves against the server, starting new games
+ * as the old ones end (the computer starts every second game). Latency
+ * of every computer move, from sending the request to receiving the reply,
+ * is recorded.
+ *
+ * Usage: LoadClient [-host name] [-port n] [-sessions n] [-seconds n] [-dim n] [-k n]
+ */
+class LoadClient {
+	/*
+	 * Client side of a session, keeps its own copy of the board
+	 */
+	private static class Session {
+		final SocketChannel channel;
+		final ByteBuffer in = ByteBuffer.allocate(64);
+		final ByteBuffer out = ByteBuffer.allocate(64);
+		TTTBoard board;
+		Status computer;
+		long sentAt;
+		long games;
+
+		Session(SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	private final int dim, winLength;
+	private final int[] cells;
+	private final Tournament.Histogram latency = new Tournament.Histogram();
+	private long moves, games, errors;
+
+	private LoadClient(int dim, int winLength) {
+		this.dim = dim;
+		this.winLength = winLength;
+		cells = new int[dim * dim];
+	}
+
+	private void run(InetSocketAddress address, int count, long seconds) throws IOException {
+		Selector selector = Selector.open();
+		for (int i = 0; i < count; i++) {
+			SocketChannel channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			channel.connect(address);
+			channel.register(selector, SelectionKey.OP_CONNECT, new Session(channel));
+		}
+
+		long start = System.nanoTime(), end = start + seconds * 1_000_000_000L;
+		int open = count;
+		while (System.nanoTime() < end && open > 0) {
+			selector.select(100);
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				Session session = (Session) key.attachment();
+				try {
+					if (key.isConnectable()) {
+						session.channel.finishConnect();
+						key.interestOps(SelectionKey.OP_READ);
+						newGame(session);
+					} else if (key.isReadable()) {
+						if (session.channel.read(session.in) < 0)
+							throw new IOException("Connection closed by server");
+						process(session);
+					}
+					flush(session, key);
+				} catch (IOException e) {
+					System.out.println("Session failed: " + e);
+					key.cancel();
+					session.channel.close();
+					open--;
+				}
+			}
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		selector.close();
+
+		System.out.printf("%d sessions (%d open), %d games, %d computer moves, %d errors in %.1f s%n",
+				count, open, games, moves, errors, elapsed);
+		System.out.printf("%.0f moves/s, %.0f games/s, move latency %s%n",
+				moves / elapsed, games / elapsed, latency.summary());
+	}
+
+	private void newGame(Session session) {
+		session.board = new TTTBoard(dim, winLength);
+		session.computer = session.games++ % 2 == 0 ? Status.PLAYER_O : Status.PLAYER_X;
+		session.out.put(GameServer.NEW_GAME).put((byte) dim).put((byte) winLength)
+				.put((byte) (session.computer == Status.PLAYER_X ? 1 : 0));
+		session.sentAt = System.nanoTime();
+	}
+
+	private void process(Session session) {
+		ByteBuffer in = session.in;
+		in.flip();
+		while (in.hasRemaining()) {
+			int type = in.get(in.position());
+			if (type == GameServer.ERROR) {
+				if (in.remaining() < 2)
+					break;
+				in.get();
+				in.get();
+				errors++;
+				newGame(session);
+				continue;
+			}
+			if (in.remaining() < GameServer.REPLY_SIZE)
+				break;
+			in.get();
+			int cell = in.getShort() & 0xFFFF;
+			Status status = Status.values()[in.get()];
+			if (cell != GameServer.NO_CELL) {
+				latency.record(System.nanoTime() - session.sentAt);
+				moves++;
+				session.board.makeMove(cell, session.computer);
+			}
+
+			if (status != Status.IN_PROGRESS) {
+				games++;
+				newGame(session);
+			} else {
+				int n = session.board.getEmptyCells(cells);
+				int move = cells[ThreadLocalRandom.current().nextInt(n)];
+				session.board.makeMove(move, ModelUtils.switch_player(session.computer));
+				session.out.put(GameServer.MOVE).putShort((short) move);
+				session.sentAt = System.nanoTime();
+			}
+		}
+		in.compact();
+	}
+
+	private static void flush(Session session, SelectionKey key) throws IOException {
+		session.out.flip();
+		session.channel.write(session.out);
+		session.out.compact();
+		key.interestOps(session.out.position() > 0
+				? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String host = "localhost";
+		int port = 7777, sessions = 1000, dim = 3, winLength = 0;
+		long seconds = 10;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-host": host = args[++i]; break;
+			case "-port": port = Integer.parseInt(args[++i]); break;
+			case "-sessions": sessions = Integer.parseInt(args[++i]); break;
+			case "-seconds": seconds = Long.parseLong(args[++i]); break;
+			case "-dim": dim = Integer.parseInt(args[++i]); break;
+			case "-k": winLength = Integer.parseInt(args[++i]); break;
+			default:
+				System.err.println("Usage: LoadClient [-host name] [-port n] [-sessions n] [-seconds n] [-dim n] [-k n]");
+				System.exit(2);
+			}
+		}
+		new LoadClient(dim, winLength > 0 ? winLength : dim).run(new InetSocketAddress(host, port), sessions, seconds);
+	}
+}
@@ -0,0 +1,330 @@
+package games.tictactoe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monte Carlo tree search with UCT selection
+ *
+ * Every iteration descends the tree choosing children by the UCB1 formula,
+ * expands the reached node, plays random moves until the game ends and adds
+ * the result to all nodes on the path. The move visited most often wins.
+ *
+ * The tree is kept in arrays allocated once: node n has move cell[n] and
+ * childCount[n] children stored next to each other from firstChild[n].
+ * All threads work on the same tree (tree parallelism). Visit counts are
+ * incremented on the way down, so a path being played out looks like a
+ * loss to other threads until its result is known (virtual loss), which
+ * spreads threads over different branches. Nodes are expanded by a single
+ * thread, others play out from the node meanwhile.
+ *
+ * Search is limited by time or by the number of playouts (maxNodes of
+ * SearchLimits). An unlimited search runs until interrupted.
+ */
+class MonteCarloSearch {
+	private static final double EXPLORATION = 1.4;
+	// Number of visits before the node gets children
+	private static final int EXPAND_VISITS = 2;
+	private static final int UNEXPANDED = -1;
+	private static final int EXPANDING = -2;
+	// Node has no children because the pool is full
+	private static final int NO_ROOM = -3;
+	// Playouts between time limit checks
+	private static final int CHECK_INTERVAL = 64;
+
+	private final int capacity;
+	private final int[] cell;
+	private final int[] childCount;
+	private final AtomicIntegerArray firstChild;
+	private final AtomicIntegerArray visits;
+	// Sum of results (2 for win, 1 for draw) of the player moving into the node
+	private final AtomicIntegerArray rewards;
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong playouts = new AtomicLong();
+	private final AtomicBoolean stop = new AtomicBoolean();
+	private final int threads;
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param nodes maximum number of tree nodes
+	 * @param threads number of threads searching the tree
+	 */
+	public MonteCarloSearch(int nodes, int threads) {
+		capacity = nodes;
+		cell = new int[nodes];
+		childCount = new int[nodes];
+		firstChild = new AtomicIntegerArray(nodes);
+		visits = new AtomicIntegerArray(nodes);
+		rewards = new AtomicIntegerArray(nodes);
+		this.threads = threads;
+		pool = threads > 1 ? new ForkJoinPool(threads) : null;
+	}
+
+	/**
+	 * Find the best move for the player to move within given limits
+	 *
+	 * @param board the board is not changed
+	 * @param player
+	 * @param limits
+	 * @return the most visited move with score from PLAYER_X point of view:
+	 * expected result scaled to -1000 (PLAYER_O wins) .. 1000 (PLAYER_X wins),
+	 * null if the game is over
+	 * @throws InterruptedException
+	 */
+	public Move findBestMove(TTTBoard board, Status player, SearchLimits limits) throws InterruptedException {
+		if (board.isGameOver())
+			return null;
+		long deadline = AlphaBetaSearch.deadline(limits);
+		long maxPlayouts = limits.getMaxNodes() > 0 ? limits.getMaxNodes() : Long.MAX_VALUE;
+		size.set(1);
+		cell[0] = -1;
+		firstChild.set(0, UNEXPANDED);
+		visits.set(0, 0);
+		rewards.set(0, 0);
+		playouts.set(0);
+		stop.set(false);
+
+		if (pool == null) {
+			new Worker(board, player, deadline, maxPlayouts).run();
+			if (Thread.interrupted())
+				throw new InterruptedException();
+		} else {
+			List<Future<?>> tasks = new ArrayList<>();
+			for (int i = 0; i < threads; i++)
+				tasks.add(pool.submit(new Worker(board, player, deadline, maxPlayouts)));
+			try {
+				for (Future<?> task : tasks)
+					task.get();
+			} catch (InterruptedException e) {
+				stopWorkers(tasks);
+				throw e;
+			} catch (ExecutionException e) {
+				stopWorkers(tasks);
+				throw new IllegalStateException("Search worker failed", e.getCause());
+			}
+		}
+		return bestMove(board, player);
+	}
+
+	/*
+	 * Stop all workers and wait until they exit, so the next search
+	 * does not reset the tree under them
+	 */
+	private void stopWorkers(List<Future<?>> tasks) {
+		stop.set(true);
+		boolean interrupted = false;
+		for (Future<?> task : tasks) {
+			while (true) {
+				try {
+					task.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException | CancellationException e) {
+					break;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * @return number of playouts of the last search
+	 */
+	public long getPlayouts() {
+		return playouts.get();
+	}
+
+	/**
+	 * @return number of tree nodes of the last search
+	 */
+	public int getTreeSize() {
+		return Math.min(size.get(), capacity);
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Stop worker threads
+	 */
+	public void shutdown() {
+		if (pool != null)
+			pool.shutdownNow();
+	}
+
+	private Move bestMove(TTTBoard board, Status player) {
+		int first = firstChild.get(0);
+		if (first < 0) {
+			// No playout finished, take any move
+			int[] cells = new int[board.getDimension() * board.getDimension()];
+			board.getCandidateCells(cells);
+			Move move = new Move(cells[0] / board.getDimension(), cells[0] % board.getDimension());
+			move.setScore(0);
+			return move;
+		}
+		int best = first;
+		for (int child = first + 1; child < first + childCount[0]; child++)
+			if (visits.get(child) > visits.get(best))
+				best = child;
+
+		int dim = board.getDimension();
+		Move move = new Move(cell[best] / dim, cell[best] % dim);
+		int n = visits.get(best);
+		int score = n == 0 ? 0 : (int) Math.round(1000.0 * (rewards.get(best) - n) / n);
+		move.setScore(player == Status.PLAYER_X ? score : -score);
+		return move;
+	}
+
+	/*
+	 * Iterations of a single thread on its own copy of the board
+	 */
+	private class Worker implements Runnable {
+		private final TTTBoard board;
+		private final Status rootPlayer;
+		private final long deadline;
+		private final long maxPlayouts;
+		private final int[] path;
+		private final int[] played;
+		private final int[] cells;
+
+		Worker(TTTBoard position, Status player, long deadline, long maxPlayouts) {
+			board = position.clone();
+			rootPlayer = player;
+			this.deadline = deadline;
+			this.maxPlayouts = maxPlayouts;
+			int area = board.getDimension() * board.getDimension();
+			path = new int[area + 1];
+			played = new int[area];
+			cells = new int[area];
+		}
+
+		@Override
+		public void run() {
+			for (long done = 1; !stop.get() && playouts.getAndIncrement() < maxPlayouts; done++) {
+				iterate();
+				if (done % CHECK_INTERVAL == 0
+						&& (Thread.currentThread().isInterrupted() || System.currentTimeMillis() > deadline))
+					break;
+			}
+			// Leave the counter at the number of started playouts
+			playouts.updateAndGet(n -> Math.min(n, maxPlayouts));
+		}
+
+		private void iterate() {
+			int depth = 0, moves = 0;
+			int node = 0;
+			Status player = rootPlayer;
+			path[depth++] = node;
+			visits.incrementAndGet(node);
+
+			// Selection and expansion
+			while (!board.isGameOver()) {
+				int first = firstChild.get(node);
+				if (first == UNEXPANDED && (node == 0 || visits.get(node) >= EXPAND_VISITS))
+					first = expand(node);
+				if (first < 0)
+					break;
+				node = select(node, first);
+				visits.incrementAndGet(node);
+				board.makeMove(cell[node], player);
+				played[moves++] = cell[node];
+				path[depth++] = node;
+				player = ModelUtils.switch_player(player);
+			}
+
+			// Random playout
+			int empty = board.getEmptyCells(cells);
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			while (!board.isGameOver()) {
+				int i = random.nextInt(empty);
+				int move = cells[i];
+				cells[i] = cells[--empty];
+				board.makeMove(move, player);
+				played[moves++] = move;
+				player = ModelUtils.switch_player(player);
+			}
+
+			// Backpropagation, node on odd depth was entered by rootPlayer
+			Status result = board.getGameResult();
+			Status mover = rootPlayer;
+			for (int d = 1; d < depth; d++) {
+				int reward = result == Status.DRAW ? 1 : result == mover ? 2 : 0;
+				if (reward > 0)
+					rewards.addAndGet(path[d], reward);
+				mover = ModelUtils.switch_player(mover);
+			}
+
+			while (moves > 0)
+				board.undoMove(played[--moves]);
+		}
+
+		/*
+		 * @return first child of the node or a negative value if the node stays a leaf
+		 */
+		private int expand(int node) {
+			if (!firstChild.compareAndSet(node, UNEXPANDED, EXPANDING))
+				return EXPANDING;
+			int count = board.getCandidateCells(cells);
+			int first = size.get() + count > capacity ? capacity : size.getAndAdd(count);
+			if (first + count > capacity) {
+				firstChild.set(node, NO_ROOM);
+				return NO_ROOM;
+			}
+			for (int i = 0; i < count; i++) {
+				int child = first + i;
+				cell[child] = cells[i];
+				childCount[child] = 0;
+				visits.set(child, 0);
+				rewards.set(child, 0);
+				firstChild.set(child, UNEXPANDED);
+			}
+			childCount[node] = count;
+			// Volatile write publishes the children to other threads
+			firstChild.set(node, first);
+			return first;
+		}
+
+		private int select(int node, int first) {
+			double logVisits = Math.log(visits.get(node));
+			int best = first;
+			double bestValue = Double.NEGATIVE_INFINITY;
+			for (int child = first; child < first + childCount[node]; child++) {
+				int n = visits.get(child);
+				if (n == 0)
+					return child;
+				double value = rewards.get(child) / (2.0 * n) + EXPLORATION * Math.sqrt(logVisits / n);
+				if (value > bestValue) {
+					bestValue = value;
+					best = child;
+				}
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * Report playouts per second for growing number of threads on empty 9x9 board, 5 in a row
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		TTTBoard board = new TTTBoard(9, 5);
+		for (int threads = 1; threads <= maxThreads; threads++) {
+			MonteCarloSearch search = new MonteCarloSearch(1 << 20, threads);
+			search.findBestMove(board, Status.PLAYER_X, SearchLimits.ofMillis(500));
+			long start = System.nanoTime();
+			Move move = search.findBestMove(board, Status.PLAYER_X, SearchLimits.ofMillis(2000));
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("threads %2d: %8.0f playouts/s, %8d nodes, move %s%n",
+					threads, search.getPlayouts() / seconds, search.getTreeSize(), move);
+			search.shutdown();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package games.tictactoe;
+
+/**
+ * Chooses computer moves, the steps shared by TTTModel.getBestMove,
+ * GameServer and PositionAnalyzer
+ *
+ * Immediate wins are taken from the threat index, 3x3 positions and 4x4
+ * positions (once the table is loaded) from solved tables. On larger
+ * boards proof-number search looks for a forced win within a part of the
+ * limits, the rest of them is left to alpha-beta search.
+ *
+ * Engine is not synchronized, every thread needs its own; the transposition
+ * table and the solved tables can be shared. TTTModel overrides the proof
+ * and search steps to record them in engine metrics and to use its parallel
+ * or Monte Carlo search.
+ */
+class MoveEngine {
+	// Part of the limits given to the proof-number search, the rest goes to the search
+	private static final int PROOF_SHARE = 4;
+
+	private final AlphaBetaSearch search;
+	// Created on first use, 3x3 and 4x4 boards do not need it
+	private ProofNumberSearch proofSearch;
+	private long nodes;
+
+	/**
+	 * @param table transposition table of the alpha-beta search
+	 */
+	public MoveEngine(TranspositionTable table) {
+		search = new AlphaBetaSearch(table);
+	}
+
+	/**
+	 * Find the best move within given limits
+	 *
+	 * @param board the board is not changed
+	 * @param player
+	 * @param limits
+	 * @return the best move with score given from PLAYER_X point of view
+	 * as by TTTModel.getMiniMaxMove, or null if the game is over
+	 * @throws InterruptedException
+	 */
+	public Move findBestMove(TTTBoard board, Status player, SearchLimits limits) throws InterruptedException {
+		nodes = 0;
+		Move move = findKnownMove(board, player);
+		if (move != null)
+			return move;
+
+		// Forced wins are found much faster by proof-number search
+		if (board.getDimension() > 3) {
+			SearchLimits proofLimits = new SearchLimits(limits.getTimeMillis() / PROOF_SHARE,
+					limits.getMaxNodes() / PROOF_SHARE);
+			if (limits.isUnlimited() || !proofLimits.isUnlimited()) {
+				if (proofSearch == null)
+					proofSearch = new ProofNumberSearch(1 << 19);
+				long start = System.nanoTime();
+				move = proveWin(proofSearch, board, player, proofLimits);
+				nodes += proofSearch.getIterations();
+				if (move != null)
+					return move;
+				// The search gets what is left of the limits
+				limits = limits.remaining((System.nanoTime() - start) / 1_000_000, proofSearch.getIterations());
+			}
+		}
+		return search(board, player, limits);
+	}
+
+	/**
+	 * @return nodes searched by the last findBestMove, proof-number nodes included
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Immediate win or move read from a solved table
+	 *
+	 * @return the move or null if the position has to be searched
+	 */
+	protected Move findKnownMove(TTTBoard board, Status player) {
+		Move move = TTTModel.getNextWinningMove(board, player);
+		if (move != null) {
+			int score = AlphaBetaSearch.WIN_SCORE - 1;
+			move.setScore(player == Status.PLAYER_X ? score : -score);
+			return move;
+		}
+		if (board.getDimension() == 3 && board.getWinLength() == 3)
+			return SolvedTable3x3.getInstance().getBestMove(board, player);
+		// Lost 4x4 positions are searched for the longest defence, so are all
+		// positions until the table is loaded, it is not waited for
+		if (board.getDimension() == 4 && board.getWinLength() == 4) {
+			SolvedTable4x4 table = SolvedTable4x4.getIfLoaded();
+			return table != null ? table.getBestMove(board, player) : null;
+		}
+		return null;
+	}
+
+	/**
+	 * @return forced win found by the proof-number search, null if none was proved
+	 */
+	protected Move proveWin(ProofNumberSearch proofSearch, TTTBoard board, Status player, SearchLimits limits)
+			throws InterruptedException {
+		return proofSearch.findWinningMove(board, player, limits);
+	}
+
+	/**
+	 * @return alpha-beta search used by the search step
+	 */
+	protected AlphaBetaSearch getAlphaBetaSearch() {
+		return search;
+	}
+
+	/**
+	 * @return the best move found by the search within given limits
+	 */
+	protected Move search(TTTBoard board, Status player, SearchLimits limits) throws InterruptedException {
+		Move move = search.findBestMove(board, player, limits);
+		nodes += search.getNodes();
+		return move;
+	}
+}
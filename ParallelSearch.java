@@ -0,0 +1,238 @@
+package games.tictactoe;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Alpha-beta search splitting root moves between threads of a ForkJoinPool
+ *
+ * In every iteration the first root move (the best one so far) is searched
+ * alone to get the alpha bound, then the remaining moves are searched in
+ * parallel using that bound ("young brothers wait"). Workers share the
+ * transposition table and keep their own killer and history tables.
+ * Every worker task plays moves on its own copy of the board.
+ *
+ * Interrupting the thread calling findBestMove stops all workers.
+ */
+class ParallelSearch {
+	private final TranspositionTable table;
+	private final ForkJoinPool pool;
+	private final int threads;
+	private final AtomicBoolean stop = new AtomicBoolean();
+	private final AlphaBetaSearch master;
+	private final ThreadLocal<AlphaBetaSearch> workers;
+	private final LongAdder nodes = new LongAdder();
+	private int completedDepth;
+
+	/**
+	 * @param table transposition table shared by all workers
+	 * @param threads number of worker threads
+	 */
+	public ParallelSearch(TranspositionTable table, int threads) {
+		this.table = table;
+		this.threads = threads;
+		pool = new ForkJoinPool(threads);
+		master = new AlphaBetaSearch(table, stop);
+		workers = ThreadLocal.withInitial(() -> new AlphaBetaSearch(table, stop));
+	}
+
+	/**
+	 * Find the best move for the player to move within given limits
+	 *
+	 * @param position
+	 * @param player
+	 * @param limits
+	 * @return the best move found by the last completed iteration with score
+	 * given from PLAYER_X point of view or null if there is no move
+	 * @throws InterruptedException
+	 */
+	public Move findBestMove(TTTBoard position, Status player, SearchLimits limits) throws InterruptedException {
+		// Moves are played on the copies, the caller's board is never touched
+		TTTBoard board = position.clone();
+		long deadline = AlphaBetaSearch.deadline(limits);
+		long maxNodes = limits.getMaxNodes() > 0 ? limits.getMaxNodes() : Long.MAX_VALUE;
+		stop.set(false);
+		nodes.reset();
+		completedDepth = 0;
+		// Master and workers store entries with the same age
+		int age = table.newSearch();
+
+		// Without limits the whole tree is searched at once
+		int firstDepth = limits.isUnlimited() ? board.getEmptyCount() : 1;
+		Move bestMove = null;
+		for (int depth = firstDepth; depth <= board.getEmptyCount(); depth++) {
+			Move move;
+			try {
+				move = searchIteration(board, player, depth, deadline, maxNodes, bestMove != null, age);
+			} catch (AlphaBetaSearch.SearchAborted e) {
+				break;
+			}
+			if (move == null)
+				break;
+			bestMove = move;
+			completedDepth = depth;
+			// Stop as soon as the game result is known
+			if (Math.abs(move.getScore()) > AlphaBetaSearch.WIN_THRESHOLD)
+				break;
+		}
+		return bestMove;
+	}
+
+	/**
+	 * @return number of nodes visited by all threads in the last search
+	 */
+	public long getNodes() {
+		return nodes.sum();
+	}
+
+	/**
+	 * @return depth of the last completed iteration
+	 */
+	public int getCompletedDepth() {
+		return completedDepth;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Stop worker threads
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	private Move searchIteration(TTTBoard board, Status player, int depth,
+			long deadline, long maxNodes, boolean abortable, int age) throws InterruptedException {
+		long nodeBudget = Math.max(1, (maxNodes - nodes.sum()) / threads);
+		master.startSearch(board, deadline, nodeBudget, abortable, age);
+		List<Move> moves = master.rootMoves(board, player);
+		if (moves.isEmpty())
+			return null;
+
+		// Eldest brother sets the bound for the younger ones
+		Move first = moves.get(0);
+		int firstScore;
+		try {
+			firstScore = master.searchRootMove(board, first, player, depth,
+					-AlphaBetaSearch.INFINITY, AlphaBetaSearch.INFINITY);
+		} finally {
+			nodes.add(master.getNodes());
+		}
+		RootResult result = new RootResult(first, firstScore);
+
+		List<Future<?>> tasks = new ArrayList<>();
+		for (Move move : moves.subList(1, moves.size()))
+			tasks.add(pool.submit(() -> {
+				AlphaBetaSearch worker = workers.get();
+				TTTBoard workerBoard = board.clone();
+				worker.startSearch(workerBoard, deadline, nodeBudget, abortable, age);
+				try {
+					int score = worker.searchRootMove(workerBoard, move, player, depth,
+							result.getAlpha(), AlphaBetaSearch.INFINITY);
+					result.update(move, score);
+				} finally {
+					nodes.add(worker.getNodes());
+				}
+				return null;
+			}));
+
+		try {
+			for (Future<?> task : tasks) {
+				if (abortable)
+					task.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+				else
+					task.get();
+			}
+		} catch (InterruptedException e) {
+			stopWorkers(tasks);
+			throw e;
+		} catch (TimeoutException e) {
+			stopWorkers(tasks);
+			throw new AlphaBetaSearch.SearchAborted();
+		} catch (ExecutionException e) {
+			stopWorkers(tasks);
+			if (e.getCause() instanceof AlphaBetaSearch.SearchAborted)
+				throw (AlphaBetaSearch.SearchAborted) e.getCause();
+			throw new IllegalStateException("Search worker failed", e.getCause());
+		}
+
+		master.storeRoot(board, player, depth, result.getAlpha(), result.getBestMove());
+		return result.getBestMove();
+	}
+
+	/*
+	 * Stop all tasks and wait until they exit, so the next search
+	 * does not share workers with the aborted one
+	 */
+	private void stopWorkers(List<Future<?>> tasks) {
+		stop.set(true);
+		for (Future<?> task : tasks) {
+			try {
+				task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException | CancellationException e) {
+				// Aborted task
+			}
+		}
+	}
+
+	/*
+	 * Best root move found so far by any thread
+	 */
+	private static class RootResult {
+		private Move bestMove;
+		private int alpha;
+
+		RootResult(Move move, int score) {
+			bestMove = move;
+			alpha = score;
+		}
+
+		synchronized int getAlpha() {
+			return alpha;
+		}
+
+		synchronized Move getBestMove() {
+			return bestMove;
+		}
+
+		synchronized void update(Move move, int score) {
+			if (score > alpha) {
+				alpha = score;
+				bestMove = move;
+			}
+		}
+	}
+
+	/**
+	 * Report speedup of full 4x4 search for growing number of threads
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		TranspositionTable table = new TranspositionTable(64);
+		long baseTime = 0;
+
+		for (int threads = 1; threads <= maxThreads; threads++) {
+			ParallelSearch search = new ParallelSearch(table, threads);
+			table.clear();
+			TTTBoard board = new TTTBoard(4);
+			board.move(0, 0, Status.PLAYER_X);
+			board.move(1, 1, Status.PLAYER_O);
+
+			long start = System.nanoTime();
+			Move move = search.findBestMove(board, Status.PLAYER_X, SearchLimits.UNLIMITED);
+			long time = Math.max(1, (System.nanoTime() - start) / 1000000);
+			if (threads == 1)
+				baseTime = time;
+			System.out.printf("threads %2d: %6d ms, %10d nodes, speedup %.2f, move %s%n",
+					threads, time, search.getNodes(), (double) baseTime / time, move);
+			search.shutdown();
+		}
+	}
+}
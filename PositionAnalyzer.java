@@ -0,0 +1,355 @@
+package games.tictactoe;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Finds the best move of many positions in parallel
+ *
+ * Position is encoded as dim:winLength:cells[:player], cells row by row
+ * as X, O or '.' for empty, for example "3:3:X...O....". Boards up to
+ * GameServer.MAX_DIM are analysed, larger ones are invalid. Player to move
+ * is PLAYER_X if both players have as many signs, PLAYER_O otherwise,
+ * unless given as X or O.
+ *
+ * Positions are analysed by MoveEngine like moves of TTTModel.getBestMove
+ * and GameServer. Every worker thread has its own engine with transposition
+ * table and its own scratch board for each board size, reset for every
+ * position, so workers share only the read-only line tables, hash keys and
+ * solved tables. Boards are not changed and nothing is printed.
+ *
+ * Results are given to the consumer in the order they are completed, one
+ * at a time, each with the index of its position in the input.
+ */
+class PositionAnalyzer {
+	// Positions queued for every worker thread
+	private static final int QUEUE_PER_THREAD = 64;
+
+	private final int threads;
+	private final SearchLimits limits;
+	private final int tableMegabytes;
+
+	/**
+	 * Analysis of a single position
+	 */
+	static class Result {
+		private final long index;
+		private final String position;
+		private final Move move;
+		private final long nodes;
+		private final String error;
+
+		Result(long index, String position, Move move, long nodes, String error) {
+			this.index = index;
+			this.position = position;
+			this.move = move;
+			this.nodes = nodes;
+			this.error = error;
+		}
+
+		/**
+		 * @return index of the position in the input
+		 */
+		public long getIndex() {
+			return index;
+		}
+
+		public String getPosition() {
+			return position;
+		}
+
+		/**
+		 * @return the best move scored from PLAYER_X point of view as by
+		 * TTTModel.getBestMove, null if the game is over or the position is invalid
+		 */
+		public Move getMove() {
+			return move;
+		}
+
+		/**
+		 * @return number of nodes searched, proof-number nodes included,
+		 * 0 for moves found without search
+		 */
+		public long getNodes() {
+			return nodes;
+		}
+
+		/**
+		 * @return why the position could not be analysed, null if it was
+		 */
+		public String getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			String analysis = error != null ? "error " + error
+					: move == null ? "game over" : move.getRow() + "," + move.getCol() + " " + move.getScore() + " " + nodes;
+			return index + " " + position + " " + analysis;
+		}
+	}
+
+	/*
+	 * Position with its index, END tells the worker to finish
+	 */
+	private static class Task {
+		static final Task END = new Task(-1, null);
+
+		final long index;
+		final String position;
+
+		Task(long index, String position) {
+			this.index = index;
+			this.position = position;
+		}
+	}
+
+	/**
+	 * @param threads number of worker threads
+	 * @param limits search limits of every position
+	 * @param tableMegabytes size of the transposition table of every worker
+	 */
+	public PositionAnalyzer(int threads, SearchLimits limits, int tableMegabytes) {
+		this.threads = threads;
+		this.limits = limits;
+		this.tableMegabytes = tableMegabytes;
+	}
+
+	/**
+	 * Analyse positions, returns when all of them are done
+	 *
+	 * @param positions encoded positions, read by the calling thread while
+	 * workers analyse the ones read before
+	 * @param results called from worker threads, never concurrently
+	 * @return number of positions
+	 * @throws InterruptedException
+	 */
+	public long analyze(Stream<String> positions, Consumer<Result> results) throws InterruptedException {
+		BlockingQueue<Task> queue = new ArrayBlockingQueue<>(QUEUE_PER_THREAD * threads);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Object lock = new Object();
+		Consumer<Result> serial = result -> {
+			synchronized (lock) {
+				results.accept(result);
+			}
+		};
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> workers = new ArrayList<>();
+		for (int i = 0; i < threads; i++)
+			workers.add(pool.submit(new Worker(queue, serial, failure)));
+		long count = 0;
+		try {
+			Iterator<String> iterator = positions.iterator();
+			while (iterator.hasNext() && failure.get() == null)
+				queue.put(new Task(count++, iterator.next()));
+			for (int i = 0; i < threads; i++)
+				queue.put(Task.END);
+			for (Future<?> worker : workers)
+				worker.get();
+		} catch (ExecutionException e) {
+			failure.compareAndSet(null, e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		if (failure.get() != null)
+			throw new IllegalStateException("Analysis failed", failure.get());
+		return count;
+	}
+
+	/**
+	 * Analyse positions
+	 *
+	 * @param positions encoded positions
+	 * @return results in the order of positions
+	 * @throws InterruptedException
+	 */
+	public Result[] analyze(String[] positions) throws InterruptedException {
+		Result[] results = new Result[positions.length];
+		analyze(Arrays.stream(positions), result -> results[(int) result.getIndex()] = result);
+		return results;
+	}
+
+	/**
+	 * @param board
+	 * @param player the player to move
+	 * @return position encoded for analysis
+	 */
+	public static String encode(TTTBoard board, Status player) {
+		int dim = board.getDimension();
+		StringBuilder cells = new StringBuilder(dim * dim);
+		for (int row = 0; row < dim; row++)
+			for (int col = 0; col < dim; col++) {
+				Status status = board.getGridStatus(row, col);
+				cells.append(status == Status.PLAYER_X ? 'X' : status == Status.PLAYER_O ? 'O' : '.');
+			}
+		return dim + ":" + board.getWinLength() + ":" + cells + ":" + (player == Status.PLAYER_X ? 'X' : 'O');
+	}
+
+	/*
+	 * Worker thread with its own engine and scratch boards
+	 */
+	private class Worker implements Runnable {
+		private final BlockingQueue<Task> queue;
+		private final Consumer<Result> results;
+		private final AtomicReference<Throwable> failure;
+		private final MoveEngine engine = new MoveEngine(new TranspositionTable(tableMegabytes));
+		// Scratch board of every size, keyed by dim << 16 | winLength
+		private final Map<Integer, TTTBoard> boards = new HashMap<>();
+
+		Worker(BlockingQueue<Task> queue, Consumer<Result> results, AtomicReference<Throwable> failure) {
+			this.queue = queue;
+			this.results = results;
+			this.failure = failure;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (Task task; (task = queue.take()) != Task.END; ) {
+					// Keep taking positions after a failure so the reader is not blocked
+					if (failure.get() != null)
+						continue;
+					try {
+						results.accept(analyze(task));
+					} catch (InterruptedException e) {
+						return;
+					} catch (RuntimeException | Error e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			} catch (InterruptedException e) {
+				// Analysis was stopped
+			}
+		}
+
+		private Result analyze(Task task) throws InterruptedException {
+			String[] parts = task.position.split(":");
+			int dim, winLength;
+			try {
+				dim = Integer.parseInt(parts[0]);
+				winLength = Integer.parseInt(parts[1]);
+			} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+				return invalid(task, "bad dimension or win length");
+			}
+			// Moves are kept in 16 bits of table entries, boards are cached by dim << 16 | winLength
+			if (dim < 1 || dim > GameServer.MAX_DIM || winLength < 1 || winLength > dim
+					|| parts.length < 3 || parts[2].length() != dim * dim)
+				return invalid(task, "bad board size");
+
+			TTTBoard board = boards.computeIfAbsent(dim << 16 | winLength, key -> new TTTBoard(dim, winLength));
+			board.reset();
+			int xCount = 0, oCount = 0;
+			for (int cell = 0; cell < dim * dim; cell++) {
+				char sign = parts[2].charAt(cell);
+				if (sign == 'X') {
+					board.makeMove(cell, Status.PLAYER_X);
+					xCount++;
+				} else if (sign == 'O') {
+					board.makeMove(cell, Status.PLAYER_O);
+					oCount++;
+				} else if (sign != '.') {
+					return invalid(task, "bad cell " + sign);
+				}
+			}
+			Status player = xCount == oCount ? Status.PLAYER_X : Status.PLAYER_O;
+			if (parts.length > 3)
+				player = parts[3].equals("X") ? Status.PLAYER_X : parts[3].equals("O") ? Status.PLAYER_O : null;
+			if (player == null)
+				return invalid(task, "bad player " + parts[3]);
+			if (board.isGameOver())
+				return new Result(task.index, task.position, null, 0, null);
+
+			Move move = engine.findBestMove(board, player, limits);
+			return new Result(task.index, task.position, move, engine.getNodes(), null);
+		}
+
+		private Result invalid(Task task, String error) {
+			return new Result(task.index, task.position, null, 0, error);
+		}
+	}
+
+	/*
+	 * Positions of random games, every one cut after a random number of moves
+	 */
+	private static String[] randomPositions(int count, int dim, int winLength, long seed) {
+		Random random = new Random(seed);
+		String[] positions = new String[count];
+		int[] cells = new int[dim * dim];
+		for (int i = 0; i < count; i++) {
+			TTTBoard board = new TTTBoard(dim, winLength);
+			Status player = Status.PLAYER_X;
+			int moves = random.nextInt(dim * dim / 2 + 1);
+			for (int m = 0; m < moves && !board.isGameOver(); m++) {
+				int n = board.getCandidateCells(cells);
+				board.makeMove(cells[random.nextInt(n)], player);
+				player = ModelUtils.switch_player(player);
+			}
+			positions[i] = encode(board, player);
+		}
+		return positions;
+	}
+
+	/**
+	 * Usage: PositionAnalyzer [-threads n] [-nodes n] [-millis n] [-table megabytes] [file]
+	 *        PositionAnalyzer -random count [-dim n] [-k n] [-threads n] [-nodes n] [-millis n] [-table megabytes]
+	 *
+	 * Print analysis of positions in the file (standard input if not given),
+	 * one per line, or report throughput of random positions for growing
+	 * number of threads.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors(), random = 0, dim = 5, winLength = 0, table = 16;
+		long nodes = 0, millis = 0;
+		String file = null;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-threads": threads = Integer.parseInt(args[++i]); break;
+			case "-nodes": nodes = Long.parseLong(args[++i]); break;
+			case "-millis": millis = Long.parseLong(args[++i]); break;
+			case "-table": table = Integer.parseInt(args[++i]); break;
+			case "-random": random = Integer.parseInt(args[++i]); break;
+			case "-dim": dim = Integer.parseInt(args[++i]); break;
+			case "-k": winLength = Integer.parseInt(args[++i]); break;
+			default:
+				if (args[i].startsWith("-") || file != null) {
+					System.err.println("Usage: PositionAnalyzer [-threads n] [-nodes n] [-millis n] [-table megabytes] [file]");
+					System.err.println("       PositionAnalyzer -random count [-dim n] [-k n] [-threads n] [-nodes n] [-millis n] [-table megabytes]");
+					System.exit(2);
+				}
+				file = args[i];
+			}
+		}
+		SearchLimits limits = new SearchLimits(millis, nodes == 0 && millis == 0 ? 20000 : nodes);
+
+		if (random == 0) {
+			BufferedReader reader = file != null ? Files.newBufferedReader(Paths.get(file))
+					: new BufferedReader(new InputStreamReader(System.in));
+			try (Stream<String> lines = reader.lines()) {
+				new PositionAnalyzer(threads, limits, table).analyze(
+						lines.map(String::trim).filter(line -> !line.isEmpty()), System.out::println);
+			}
+			return;
+		}
+
+		String[] positions = randomPositions(random, dim, winLength > 0 ? winLength : Math.min(dim, 4), 1);
+		for (int n = 1; n <= threads; n++) {
+			AtomicLong searched = new AtomicLong();
+			long start = System.nanoTime();
+			new PositionAnalyzer(n, limits, table).analyze(Arrays.stream(positions),
+					result -> searched.addAndGet(result.getNodes()));
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("threads %2d: %8.0f positions/s, %10.0f nodes/s%n",
+					n, positions.length / seconds, searched.get() / seconds);
+		}
+	}
+}
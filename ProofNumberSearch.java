@@ -0,0 +1,286 @@
+package games.tictactoe;
+
+/**
+ * Proof-number search proving or disproving a forced win of one player
+ *
+ * The attacker tries to win, the defender to draw or win. Every node keeps
+ * its proof number (least number of leaves to expand to prove the win) and
+ * disproof number (the same to disprove it). Search repeatedly descends to
+ * the most proving leaf: at attacker nodes the child with the smallest
+ * proof number, at defender nodes the child with the smallest disproof
+ * number. The leaf is expanded and numbers on the path are updated until
+ * the root is proved, disproved or the limits run out.
+ *
+ * Immediate wins and forced blocks are recognised while expanding: a player
+ * facing one winning cell of the opponent has the single move to block it,
+ * facing two is lost. Attacker moves are taken from candidate cells of the
+ * board, defender moves from all empty cells, so a proved win is exact while
+ * a disproof on boards with k-in-a-row only means no win starting with
+ * moves near placed signs.
+ *
+ * The tree is kept in arrays allocated once like in MonteCarloSearch, search
+ * gives up when they are full. Transpositions are not detected.
+ */
+class ProofNumberSearch {
+	public static final int UNKNOWN = 0;
+	public static final int PROVED = 1;
+	public static final int DISPROVED = 2;
+
+	private static final int INFINITY = Integer.MAX_VALUE;
+	private static final int UNEXPANDED = -1;
+	// Node decided at expansion, it has no children
+	private static final int TERMINAL = -2;
+	// Iterations between time limit checks
+	private static final int CHECK_INTERVAL = 256;
+
+	private final int capacity;
+	private final int[] cell;
+	private final int[] firstChild;
+	private final int[] childCount;
+	private final int[] proof;
+	private final int[] disproof;
+	private int size;
+	private long iterations;
+
+	private TTTBoard board;
+	private Status attacker;
+	private int[] path;
+	private int[] cells;
+	private int[] threats;
+
+	/**
+	 * @param nodes maximum number of tree nodes
+	 */
+	public ProofNumberSearch(int nodes) {
+		capacity = nodes;
+		cell = new int[nodes];
+		firstChild = new int[nodes];
+		childCount = new int[nodes];
+		proof = new int[nodes];
+		disproof = new int[nodes];
+	}
+
+	/**
+	 * Find a move forcing the win of the player to move
+	 *
+	 * @param board the board is not changed
+	 * @param player
+	 * @param limits time and number of expanded nodes (maxNodes)
+	 * @return winning move with score WIN_THRESHOLD + 1 (the distance is not
+	 * known) given from PLAYER_X point of view, null if no win was proved
+	 * @throws InterruptedException
+	 */
+	public Move findWinningMove(TTTBoard board, Status player, SearchLimits limits) throws InterruptedException {
+		if (prove(board, player, player, limits) != PROVED)
+			return null;
+
+		int win = -1;
+		if (firstChild[0] >= 0) {
+			for (int child = firstChild[0]; child < firstChild[0] + childCount[0] && win < 0; child++)
+				if (proof[child] == 0)
+					win = cell[child];
+		} else {
+			// Won at once
+			win = threats[0];
+		}
+		int dim = board.getDimension();
+		Move move = new Move(win / dim, win % dim);
+		int score = AlphaBetaSearch.WIN_THRESHOLD + 1;
+		move.setScore(player == Status.PLAYER_X ? score : -score);
+		return move;
+	}
+
+	/**
+	 * Prove or disprove that the attacker can force a win
+	 *
+	 * @param board the board is not changed
+	 * @param player the player to move
+	 * @param attacker the player trying to win, the player to move or the opponent
+	 * @param limits time and number of expanded nodes (maxNodes)
+	 * @return PROVED, DISPROVED or UNKNOWN if the limits or the node pool ran out
+	 * @throws InterruptedException
+	 */
+	public int prove(TTTBoard board, Status player, Status attacker, SearchLimits limits) throws InterruptedException {
+		int area = board.getDimension() * board.getDimension();
+		this.board = board.clone();
+		this.attacker = attacker;
+		path = new int[area + 1];
+		cells = new int[area];
+		threats = new int[area];
+		long deadline = AlphaBetaSearch.deadline(limits);
+		long maxIterations = limits.getMaxNodes() > 0 ? limits.getMaxNodes() : Long.MAX_VALUE;
+
+		size = 1;
+		cell[0] = -1;
+		iterations = 0;
+		if (!expand(0, player))
+			return UNKNOWN;
+		while (proof[0] != 0 && disproof[0] != 0) {
+			if (iterations >= maxIterations)
+				return UNKNOWN;
+			if (++iterations % CHECK_INTERVAL == 0) {
+				if (Thread.interrupted())
+					throw new InterruptedException();
+				if (System.currentTimeMillis() > deadline)
+					return UNKNOWN;
+			}
+			if (!iterate(player))
+				return UNKNOWN;
+		}
+		return proof[0] == 0 ? PROVED : DISPROVED;
+	}
+
+	/**
+	 * @return number of nodes expanded by the last search
+	 */
+	public long getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return number of tree nodes of the last search
+	 */
+	public int getTreeSize() {
+		return size;
+	}
+
+	/*
+	 * Expand the most proving leaf and update numbers on its path
+	 * @return false if the node pool is full
+	 */
+	private boolean iterate(Status rootPlayer) {
+		int depth = 0, node = 0;
+		Status player = rootPlayer;
+		path[0] = node;
+		while (firstChild[node] >= 0) {
+			node = select(node, player == attacker);
+			board.makeMove(cell[node], player);
+			path[++depth] = node;
+			player = ModelUtils.switch_player(player);
+		}
+
+		boolean expanded = expand(node, player);
+		for (int d = depth; d >= 0; d--) {
+			if (d < depth)
+				update(path[d], (d % 2 == 0 ? rootPlayer : ModelUtils.switch_player(rootPlayer)) == attacker);
+			if (d > 0)
+				board.undoMove(cell[path[d]]);
+		}
+		return expanded;
+	}
+
+	private int select(int node, boolean attackerNode) {
+		int best = firstChild[node];
+		for (int child = best + 1; child < firstChild[node] + childCount[node]; child++)
+			if (attackerNode ? proof[child] < proof[best] : disproof[child] < disproof[best])
+				best = child;
+		return best;
+	}
+
+	/*
+	 * Decide the leaf with player to move or give it children
+	 * @return false if the node pool is full
+	 */
+	private boolean expand(int node, Status player) {
+		boolean attackerNode = player == attacker;
+		Status opponent = ModelUtils.switch_player(player);
+		if (board.isGameOver()) {
+			// Attacker wins are decided one move earlier
+			setValue(node, board.getGameResult() == attacker);
+			return true;
+		}
+		if (board.getThreatCells(player, threats) > 0) {
+			setValue(node, attackerNode);
+			return true;
+		}
+
+		int count = board.getThreatCells(opponent, cells);
+		if (count > 1) {
+			// Only one of the opponent's wins can be blocked
+			setValue(node, !attackerNode);
+			return true;
+		}
+		if (count == 0)
+			count = attackerNode ? board.getCandidateCells(cells) : board.getEmptyCells(cells);
+		if (size + count > capacity)
+			return false;
+
+		int first = size;
+		size += count;
+		for (int i = 0; i < count; i++) {
+			int child = first + i;
+			cell[child] = cells[i];
+			firstChild[child] = UNEXPANDED;
+			childCount[child] = 0;
+			proof[child] = 1;
+			disproof[child] = 1;
+		}
+		firstChild[node] = first;
+		childCount[node] = count;
+		update(node, attackerNode);
+		return true;
+	}
+
+	private void setValue(int node, boolean attackerWins) {
+		firstChild[node] = TERMINAL;
+		proof[node] = attackerWins ? 0 : INFINITY;
+		disproof[node] = attackerWins ? INFINITY : 0;
+	}
+
+	/*
+	 * Attacker node needs one child proved and all disproved,
+	 * defender node the other way round
+	 */
+	private void update(int node, boolean attackerNode) {
+		int min = INFINITY;
+		long sum = 0;
+		for (int child = firstChild[node]; child < firstChild[node] + childCount[node]; child++) {
+			min = Math.min(min, attackerNode ? proof[child] : disproof[child]);
+			sum += attackerNode ? disproof[child] : proof[child];
+		}
+		int total = (int) Math.min(sum, INFINITY);
+		proof[node] = attackerNode ? min : total;
+		disproof[node] = attackerNode ? total : min;
+	}
+
+	/**
+	 * Prove positions of random games on 9x9 board, 5 in a row, and compare
+	 * with alpha-beta search given the same time
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		long millis = args.length > 1 ? Long.parseLong(args[1]) : 500;
+		ProofNumberSearch search = new ProofNumberSearch(1 << 20);
+		AlphaBetaSearch alphaBeta = new AlphaBetaSearch(new TranspositionTable(64));
+		java.util.Random random = new java.util.Random(1);
+		int proved = 0, alphaBetaProved = 0;
+		long proofNanos = 0;
+		for (int game = 0; game < games; game++) {
+			TTTBoard board = new TTTBoard(9, 5);
+			Status player = Status.PLAYER_X;
+			int[] cells = new int[81];
+			// Random moves near each other until a tactical position
+			for (int i = 0; i < 14 && !board.isGameOver(); i++) {
+				int n = board.getCandidateCells(cells);
+				board.makeMove(cells[random.nextInt(n)], player);
+				player = ModelUtils.switch_player(player);
+			}
+			if (board.isGameOver())
+				continue;
+			long start = System.nanoTime();
+			Move move = search.findWinningMove(board, player, SearchLimits.ofMillis(millis));
+			proofNanos += System.nanoTime() - start;
+			Move best = alphaBeta.findBestMove(board, player, SearchLimits.ofMillis(millis));
+			boolean alphaBetaWin = Math.abs(best.getScore()) > AlphaBetaSearch.WIN_THRESHOLD
+					&& (best.getScore() > 0) == (player == Status.PLAYER_X);
+			if (move != null)
+				proved++;
+			if (alphaBetaWin)
+				alphaBetaProved++;
+			System.out.printf("game %2d: proof-number %s in %d nodes, alpha-beta %s%n", game,
+					move != null ? "win " + move : "no win", search.getIterations(), alphaBetaWin ? "win " + best : "no win");
+		}
+		System.out.printf("Proof-number search proved %d wins in %.1f ms on average, alpha-beta %d%n",
+				proved, proofNanos / 1e6 / games, alphaBetaProved);
+	}
+}
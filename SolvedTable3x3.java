@@ -0,0 +1,150 @@
+package games.tictactoe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Best move and score of every reachable 3x3 position
+ *
+ * Table is generated on first use and saved in the tables directory
+ * (see TableFiles), later runs only memory-map the file. Position is indexed by its base-3
+ * encoding (cell (row, col) is digit row * 3 + col, 0 empty, 1 PLAYER_X,
+ * 2 PLAYER_O) plus 3^9 when PLAYER_O is to move. Every entry is 2 bytes:
+ * best cell + 1 (0 if position is not in the table) and number of plies
+ * to the end of the game, positive if the player to move wins, negative
+ * if the player to move loses, 0 for a draw.
+ */
+class SolvedTable3x3 {
+	private static final int DIM = 3;
+	private static final int POSITIONS = 19683; // 3^9
+	private static final int MAGIC = 0x54545433; // "TTT3"
+	private static final int HEADER_SIZE = TableFiles.HEADER_SIZE;
+	private static final int TABLE_SIZE = HEADER_SIZE + 2 * 2 * POSITIONS;
+	private static final String FILE_NAME = "ttt3x3.tbl";
+
+	private static volatile SolvedTable3x3 instance;
+
+	private final ByteBuffer table;
+
+	private SolvedTable3x3(ByteBuffer table) {
+		this.table = table;
+	}
+
+	/**
+	 * @return shared table, generated if the file does not exist yet
+	 */
+	public static SolvedTable3x3 getInstance() {
+		if (instance == null) {
+			synchronized (SolvedTable3x3.class) {
+				if (instance == null)
+					instance = new SolvedTable3x3(TableFiles.load(TableFiles.directory().resolve(FILE_NAME),
+							MAGIC, POSITIONS, TABLE_SIZE, SolvedTable3x3::generate));
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @param board 3x3 board
+	 * @param player the player to move
+	 * @return the best move with score given from PLAYER_X point of view
+	 * (as by TTTModel.getMiniMaxMove) or null if game is over
+	 */
+	public Move getBestMove(TTTBoard board, Status player) {
+		int entry = HEADER_SIZE + 2 * index(board, player);
+		int cell = table.get(entry) - 1;
+		if (cell < 0)
+			return null;
+
+		int plies = table.get(entry + 1);
+		int score = plies > 0 ? AlphaBetaSearch.WIN_SCORE - plies
+				: plies < 0 ? -(AlphaBetaSearch.WIN_SCORE + plies) : AlphaBetaSearch.DRAW_SCORE;
+		Move move = new Move(cell / DIM, cell % DIM);
+		move.setScore(player == Status.PLAYER_X ? score : -score);
+		return move;
+	}
+
+	private static int index(TTTBoard board, Status player) {
+		int index = 0;
+		for (int cell = DIM * DIM - 1; cell >= 0; cell--)
+			index = index * 3 + digit(board.getGridStatus(cell / DIM, cell % DIM));
+		return player == Status.PLAYER_O ? index + POSITIONS : index;
+	}
+
+	private static int digit(Status status) {
+		return status == Status.PLAYER_X ? 1 : status == Status.PLAYER_O ? 2 : 0;
+	}
+
+	/*
+	 * Solve all positions reachable from the empty board with either player starting
+	 */
+	private static ByteBuffer generate() {
+		ByteBuffer table = ByteBuffer.allocate(TABLE_SIZE).order(ByteOrder.BIG_ENDIAN);
+		table.putInt(0, MAGIC);
+		table.putInt(4, POSITIONS);
+		boolean[] solved = new boolean[2 * POSITIONS];
+		solve(new TTTBoard(DIM), Status.PLAYER_X, table, solved);
+		solve(new TTTBoard(DIM), Status.PLAYER_O, table, solved);
+		return table;
+	}
+
+	/*
+	 * @return plies to the end of the game, positive if player wins
+	 */
+	private static int solve(TTTBoard board, Status player, ByteBuffer table, boolean[] solved) {
+		int index = index(board, player);
+		int entry = HEADER_SIZE + 2 * index;
+		if (solved[index])
+			return table.get(entry + 1);
+
+		int bestCell = -1, best = 0;
+		for (int cell = 0; cell < DIM * DIM; cell++) {
+			if (board.getGridStatus(cell / DIM, cell % DIM) != Status.EMPTY)
+				continue;
+			TTTBoard child = board.clone();
+			child.move(cell / DIM, cell % DIM, player);
+			int plies;
+			if (child.getGameResult() == player)
+				plies = 1;
+			else if (child.getGameResult() == Status.DRAW)
+				plies = 0;
+			else {
+				int reply = solve(child, ModelUtils.switch_player(player), table, solved);
+				plies = reply > 0 ? -(reply + 1) : reply < 0 ? -reply + 1 : 0;
+			}
+			if (bestCell < 0 || better(plies, best)) {
+				bestCell = cell;
+				best = plies;
+			}
+		}
+
+		solved[index] = true;
+		table.put(entry, (byte) (bestCell + 1));
+		table.put(entry + 1, (byte) best);
+		return best;
+	}
+
+	/*
+	 * Faster win is better than slower one, any win is better than a draw,
+	 * draw is better than a loss and slower loss is better than faster one
+	 */
+	private static boolean better(int plies, int best) {
+		if (plies > 0)
+			return best <= 0 || plies < best;
+		if (plies == 0)
+			return best < 0;
+		return best < 0 && plies < best;
+	}
+
+	/**
+	 * Generate table file in the tables directory or in the given one
+	 */
+	public static void main(String[] args) throws IOException {
+		Path file = (args.length > 0 ? Paths.get(args[0]) : TableFiles.directory()).resolve(FILE_NAME);
+		TableFiles.write(file, generate());
+		System.out.println("Table written to " + file);
+	}
+}
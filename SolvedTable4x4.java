@@ -0,0 +1,236 @@
+package games.tictactoe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+/**
+ * Game value of every 4x4 position (4 in a row) with PLAYER_X to move
+ *
+ * Table is generated by retrograde analysis on first use (about a second)
+ * and saved in the tables directory (see TableFiles), or kept on the
+ * heap if the directory is not writable. main() generates it ahead.
+ * Callers that must not wait for it use getIfLoaded(), which starts
+ * loading on a background thread and returns null meanwhile.
+ *
+ * Position with cell i (row * 4 + col) holding digit d (0 empty,
+ * 1 PLAYER_X, 2 PLAYER_O) has index sum(d * 3^i). Every entry takes
+ * 2 bits, four entries per byte starting from the lowest bits: 0 for
+ * positions not reachable with PLAYER_X to move, otherwise LOSS, DRAW or
+ * WIN of PLAYER_X. Positions with PLAYER_O to move are looked up with
+ * the colors swapped.
+ */
+class SolvedTable4x4 {
+	private static final int DIM = 4;
+	private static final int CELLS = DIM * DIM;
+	private static final int POSITIONS = 43046721; // 3^16
+	private static final int MAGIC = 0x54545434; // "TTT4"
+	private static final int HEADER_SIZE = TableFiles.HEADER_SIZE;
+	private static final int TABLE_SIZE = HEADER_SIZE + (POSITIONS + 3) / 4;
+	private static final String FILE_NAME = "ttt4x4.tbl";
+
+	private static final int UNKNOWN = 0;
+	private static final int LOSS = 1;
+	private static final int DRAW = 2;
+	private static final int WIN = 3;
+
+	// Index part of cells set in 16 bit mask: sum of 3^cell
+	private static final int[] TERNARY = new int[1 << CELLS];
+	// Masks containing 4 signs in a row
+	private static final boolean[] HAS_LINE = new boolean[1 << CELLS];
+
+	static {
+		for (int mask = 1; mask < TERNARY.length; mask++) {
+			int cell = Integer.numberOfTrailingZeros(mask);
+			TERNARY[mask] = TERNARY[mask & (mask - 1)] + pow3(cell);
+		}
+		int[] lines = new int[2 * DIM + 2];
+		for (int i = 0; i < DIM; i++) {
+			for (int j = 0; j < DIM; j++) {
+				lines[i] |= 1 << (i * DIM + j);       // row
+				lines[DIM + i] |= 1 << (j * DIM + i); // column
+			}
+			lines[2 * DIM] |= 1 << (i * DIM + i);
+			lines[2 * DIM + 1] |= 1 << (i * DIM + DIM - 1 - i);
+		}
+		for (int mask = 0; mask < HAS_LINE.length; mask++)
+			for (int line : lines)
+				HAS_LINE[mask] |= (mask & line) == line;
+	}
+
+	private static volatile SolvedTable4x4 instance;
+	private static final AtomicBoolean loading = new AtomicBoolean();
+
+	private final ByteBuffer table;
+
+	private SolvedTable4x4(ByteBuffer table) {
+		this.table = table;
+	}
+
+	/**
+	 * @return shared table, generated if its file does not exist yet
+	 */
+	public static SolvedTable4x4 getInstance() {
+		if (instance == null) {
+			synchronized (SolvedTable4x4.class) {
+				if (instance == null)
+					instance = new SolvedTable4x4(TableFiles.load(TableFiles.directory().resolve(FILE_NAME),
+							MAGIC, POSITIONS, TABLE_SIZE, () -> pack(solve())));
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @return shared table if it is loaded, otherwise null, loading
+	 * is then started in background
+	 */
+	public static SolvedTable4x4 getIfLoaded() {
+		SolvedTable4x4 table = instance;
+		if (table == null)
+			loadInBackground();
+		return table;
+	}
+
+	/**
+	 * Load or generate the table on a daemon thread unless it is already
+	 * loaded or being loaded
+	 */
+	public static void loadInBackground() {
+		if (instance != null || !loading.compareAndSet(false, true))
+			return;
+		Thread thread = new Thread(SolvedTable4x4::getInstance, "4x4 table loader");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @param board 4x4 board, 4 in a row
+	 * @param player the player to move
+	 * @return move keeping the best game value with score WIN_THRESHOLD + 1
+	 * for a win (the distance is not known) or 0 for a draw, given from
+	 * PLAYER_X point of view, or null if the position is lost or not in the table
+	 */
+	public Move getBestMove(TTTBoard board, Status player) {
+		int own = 0, other = 0;
+		for (int cell = 0; cell < CELLS; cell++) {
+			Status status = board.getGridStatus(cell / DIM, cell % DIM);
+			if (status == player)
+				own |= 1 << cell;
+			else if (status != Status.EMPTY)
+				other |= 1 << cell;
+		}
+		int value = value(own, other);
+		if (value == UNKNOWN || value == LOSS)
+			return null;
+
+		int bestCell = -1;
+		for (int cell = 0; cell < CELLS && bestCell < 0; cell++) {
+			int bit = 1 << cell;
+			if (((own | other) & bit) != 0)
+				continue;
+			// Opponent to move after our move, swap colors to look it up
+			if (HAS_LINE[own | bit] || WIN + LOSS - value(other, own | bit) == value)
+				bestCell = cell;
+		}
+		if (bestCell < 0)
+			return null;
+
+		Move move = new Move(bestCell / DIM, bestCell % DIM);
+		int score = value == WIN ? AlphaBetaSearch.WIN_THRESHOLD + 1 : AlphaBetaSearch.DRAW_SCORE;
+		move.setScore(player == Status.PLAYER_X ? score : -score);
+		return move;
+	}
+
+	/*
+	 * @return value for the player to move having signs in own mask
+	 */
+	private int value(int own, int other) {
+		int index = TERNARY[own] + 2 * TERNARY[other];
+		return (table.get(HEADER_SIZE + (index >>> 2)) >>> ((index & 3) << 1)) & 3;
+	}
+
+	private static int pow3(int exponent) {
+		int value = 1;
+		for (int i = 0; i < exponent; i++)
+			value *= 3;
+		return value;
+	}
+
+	/*
+	 * Solve positions with PLAYER_X to move layer by layer, from the full
+	 * board down to the empty one. Every move leads to the next layer, so
+	 * positions of a layer depend only on solved ones and can be solved in
+	 * parallel. Values are kept in a byte per position while solving.
+	 */
+	private static byte[] solve() {
+		byte[] values = new byte[POSITIONS];
+		for (int signs = CELLS; signs >= 0; signs--) {
+			// PLAYER_X to move has as many signs as PLAYER_O or one less
+			int xSigns = signs / 2;
+			int oSigns = signs - xSigns;
+			IntStream.range(0, 1 << CELLS).parallel()
+					.filter(x -> Integer.bitCount(x) == xSigns)
+					.forEach(x -> solveLayer(values, x, oSigns));
+		}
+		return values;
+	}
+
+	/*
+	 * Solve positions with PLAYER_X signs in x and given number of PLAYER_O signs
+	 */
+	private static void solveLayer(byte[] values, int x, int oSigns) {
+		int free = ~x & ((1 << CELLS) - 1);
+		// All subsets of free cells
+		for (int o = free; ; o = (o - 1) & free) {
+			if (Integer.bitCount(o) == oSigns && !HAS_LINE[x])
+				values[TERNARY[x] + 2 * TERNARY[o]] = (byte) solvePosition(values, x, o);
+			if (o == 0)
+				break;
+		}
+	}
+
+	private static int solvePosition(byte[] values, int x, int o) {
+		if (HAS_LINE[o])
+			return LOSS;
+		int empty = ~(x | o) & ((1 << CELLS) - 1);
+		if (empty == 0)
+			return DRAW;
+
+		int best = LOSS;
+		for (int moves = empty; moves != 0; moves &= moves - 1) {
+			int next = x | (moves & -moves);
+			if (HAS_LINE[next])
+				return WIN;
+			// Value of the opponent to move, colors swapped
+			best = Math.max(best, WIN + LOSS - values[TERNARY[o] + 2 * TERNARY[next]]);
+			if (best == WIN)
+				break;
+		}
+		return best;
+	}
+
+	private static ByteBuffer pack(byte[] values) {
+		ByteBuffer table = ByteBuffer.allocate(TABLE_SIZE);
+		table.putInt(0, MAGIC);
+		table.putInt(4, POSITIONS);
+		for (int index = 0; index < POSITIONS; index++) {
+			int offset = HEADER_SIZE + (index >>> 2);
+			table.put(offset, (byte) (table.get(offset) | values[index] << ((index & 3) << 1)));
+		}
+		return table;
+	}
+
+	/**
+	 * Generate table file in the tables directory or in the given one
+	 */
+	public static void main(String[] args) throws IOException {
+		Path file = (args.length > 0 ? Paths.get(args[0]) : TableFiles.directory()).resolve(FILE_NAME);
+		long start = System.currentTimeMillis();
+		TableFiles.write(file, pack(solve()));
+		System.out.println("Table written to " + file + " in " + (System.currentTimeMillis() - start) / 1000 + " s");
+	}
+}
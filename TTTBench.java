@@ -0,0 +1,227 @@
+package games.tictactoe;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Benchmarks of board and engine hot paths
+ *
+ * Every benchmark runs on positions generated from a fixed seed for board
+ * dimensions 3 to 5, so runs are comparable. Each one is warmed up first,
+ * then measured for a fixed time; throughput (operations per second) and
+ * number of bytes allocated per operation are reported. Searches start
+ * with a cleared transposition table, clearing is not measured.
+ *
+ * Usage: TTTBench [-warmup seconds] [-time seconds] [-filter regex] [-save file] [-check file]
+ *
+ * Benchmarks share one JVM, so later ones may run slower code than when
+ * run alone; -filter runs only benchmarks with matching names.
+ * -save writes results to a properties file, -check compares throughput
+ * with a saved baseline and exits with status 1 if any benchmark is more
+ * than 10% slower.
+ */
+class TTTBench {
+	private static final long SEED = 20150301L;
+	private static final int[] DIMENSIONS = { 3, 4, 5 };
+	// Search on bigger boards is cut at this number of nodes
+	private static final long SEARCH_NODES = 20000;
+	private static final double TOLERANCE = 0.10;
+
+	private final long warmupNanos;
+	private final long measureNanos;
+	private final String filter;
+	private final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	// Keeps results alive so the JIT cannot drop benchmarked calls
+	private int sink;
+
+	private TTTBench(double warmupSeconds, double measureSeconds, String filter) {
+		warmupNanos = (long) (warmupSeconds * 1e9);
+		measureNanos = (long) (measureSeconds * 1e9);
+		this.filter = filter;
+	}
+
+	/*
+	 * Benchmarked operation, returns a primitive so that measuring
+	 * does not box results and add to the allocated bytes
+	 */
+	private interface Op {
+		int run() throws Exception;
+	}
+
+	/**
+	 * Result of a single benchmark
+	 */
+	static class Result {
+		final String name;
+		final double opsPerSecond;
+		final double bytesPerOp;
+
+		Result(String name, double opsPerSecond, double bytesPerOp) {
+			this.name = name;
+			this.opsPerSecond = opsPerSecond;
+			this.bytesPerOp = bytesPerOp;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-28s %14.1f ops/s %12.1f B/op", name, opsPerSecond, bytesPerOp);
+		}
+	}
+
+	/**
+	 * Position with half of the cells filled by random moves, game in progress
+	 *
+	 * @param dim
+	 * @return board with PLAYER_X to move
+	 */
+	static TTTBoard position(int dim) {
+		Random random = new Random(SEED + dim);
+		TTTBoard board = new TTTBoard(dim);
+		Status player = Status.PLAYER_X;
+		int filled = 0;
+		while (filled < (dim * dim / 2 & ~1)) {
+			int row = random.nextInt(dim), col = random.nextInt(dim);
+			if (board.getGridStatus(row, col) != Status.EMPTY)
+				continue;
+			board.move(row, col, player);
+			if (board.isGameOver()) {
+				board.undoMove(row * dim + col);
+				continue;
+			}
+			player = ModelUtils.switch_player(player);
+			filled++;
+		}
+		return board;
+	}
+
+	private List<Result> runAll() throws Exception {
+		List<Result> results = new ArrayList<>();
+		for (int dim : DIMENSIONS) {
+			TTTBoard board = position(dim);
+			TranspositionTable table = new TranspositionTable(1);
+
+			run(results, "getGameResult/" + dim, () -> board.getGameResult().ordinal());
+			run(results, "getPotentialMoves/" + dim, () -> board.getPotentialMoves().size());
+			run(results, "clone/" + dim, () -> board.clone().getEmptyCount());
+			run(results, "getNextWinningMove/" + dim, () -> {
+				Move move = TTTModel.getNextWinningMove(board, Status.PLAYER_X);
+				return move == null ? 0 : move.getRow();
+			});
+			if (dim == 3) {
+				// Search of getMiniMaxMove, starting with an empty table every time
+				run(results, "getMiniMaxMove/" + dim, table::clear,
+						() -> new AlphaBetaSearch(table).findBestMove(board, Status.PLAYER_X).getScore());
+			} else {
+				SearchLimits limits = SearchLimits.ofNodes(SEARCH_NODES);
+				run(results, "search" + SEARCH_NODES + "/" + dim, table::clear,
+						() -> new AlphaBetaSearch(table).findBestMove(board, Status.PLAYER_X, limits).getScore());
+			}
+		}
+		return results;
+	}
+
+	private void run(List<Result> results, String name, Op op) throws Exception {
+		run(results, name, null, op);
+	}
+
+	/*
+	 * @param setup run before every operation and left out of the measured
+	 * time, it must not allocate; null if there is none
+	 */
+	private void run(List<Result> results, String name, Runnable setup, Op op) throws Exception {
+		if (filter != null && !name.matches(filter))
+			return;
+		measure(setup, op, warmupNanos);
+		long[] measured = measure(setup, op, measureNanos);
+		long ops = measured[0], nanos = measured[1], bytes = measured[2];
+		Result result = new Result(name, ops * 1e9 / nanos, (double) bytes / ops);
+		System.out.println(result);
+		results.add(result);
+	}
+
+	/*
+	 * @return number of operations, measured nanoseconds and allocated bytes
+	 */
+	private long[] measure(Runnable setup, Op op, long duration) throws Exception {
+		long threadId = Thread.currentThread().getId();
+		long bytes = threads.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime(), now;
+		long ops = 0, nanos = 0;
+		do {
+			long begin;
+			if (setup == null) {
+				// Check the clock in batches, it is slower than the fastest benchmarks
+				begin = System.nanoTime();
+				for (int i = 0; i < 64; i++)
+					sink += op.run();
+				ops += 64;
+			} else {
+				// Operations with setup are slow enough to be timed one by one
+				setup.run();
+				begin = System.nanoTime();
+				sink += op.run();
+				ops++;
+			}
+			now = System.nanoTime();
+			nanos += now - begin;
+		} while (now - start < duration);
+		return new long[] { ops, nanos, threads.getThreadAllocatedBytes(threadId) - bytes };
+	}
+
+	private static void save(List<Result> results, File file) throws IOException {
+		Properties properties = new Properties();
+		for (Result result : results)
+			properties.setProperty(result.name, Double.toString(result.opsPerSecond));
+		try (OutputStream out = new FileOutputStream(file)) {
+			properties.store(out, "TTTBench throughput, ops/s");
+		}
+	}
+
+	/*
+	 * @return true if no benchmark is slower than the baseline by more than the tolerance
+	 */
+	private static boolean check(List<Result> results, File file) throws IOException {
+		Properties baseline = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			baseline.load(in);
+		}
+		boolean passed = true;
+		for (Result result : results) {
+			String value = baseline.getProperty(result.name);
+			if (value == null)
+				continue;
+			double change = result.opsPerSecond / Double.parseDouble(value) - 1;
+			boolean regression = change < -TOLERANCE;
+			System.out.printf("%-28s %+7.1f%%%s%n", result.name, 100 * change, regression ? "  REGRESSION" : "");
+			passed &= !regression;
+		}
+		return passed;
+	}
+
+	public static void main(String[] args) throws Exception {
+		double warmup = 2, time = 5;
+		String filter = null;
+		File save = null, baseline = null;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-warmup": warmup = Double.parseDouble(args[++i]); break;
+			case "-time": time = Double.parseDouble(args[++i]); break;
+			case "-filter": filter = args[++i]; break;
+			case "-save": save = new File(args[++i]); break;
+			case "-check": baseline = new File(args[++i]); break;
+			default:
+				System.err.println("Usage: TTTBench [-warmup seconds] [-time seconds] [-filter regex] [-save file] [-check file]");
+				System.exit(2);
+			}
+		}
+
+		TTTBench bench = new TTTBench(warmup, time, filter);
+		List<Result> results = bench.runAll();
+		if (save != null)
+			save(results, save);
+		if (baseline != null && !check(results, baseline))
+			System.exit(1);
+	}
+}
@@ -2,10 +2,16 @@ package games.tictactoe;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
 import javax.swing.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -40,51 +46,31 @@ class GUIUtils {
 }
 
 /**
- * Thread used to find the best computer move
+ * Search of the best computer move, run off the event dispatch thread
+ * on a copy of the board
  */
-class ComputerMove implements Runnable {
-	private static int counter = 0;
-	private final int id = counter++;
-	private TTTBoard board; // current TTTBoard
-	ExecutorService executor; 
-
-	public ComputerMove(TTTBoard board, ExecutorService executor) {
-		this.board = board;
-		this.executor = executor;
+class ComputerMove implements Callable<Move> {
+	private static final AtomicInteger counter = new AtomicInteger();
+	private final int id = counter.getAndIncrement();
+	private final TTTBoard position; // copy of the current TTTBoard
+	private final int generation;
+
+	/**
+	 * @param position copy of the board with the computer to move
+	 * @param generation game the move is searched for
+	 */
+	public ComputerMove(TTTBoard position, int generation) {
+		this.position = position;
+		this.generation = generation;
 	}
 
-	public void run() {
+	public Move call() throws InterruptedException {
 		System.out.println(this + " - thinking ...");
-		try {
-			Move move = TTTModel.makeNextMove(board, board.getTurn());
-			if (move != null) {
-				System.out.println("Move found: " + move);
-				System.out.println(board);
-				board.getGridPanel(move.getRow(), move.getCol()).repaint();
-				Status gameStatus = board.getGameResult();
-				if (gameStatus != Status.IN_PROGRESS) {
-					GUIUtils.showResult(gameStatus);
-					board.reset();
-					board.repaint();
-					if (board.getStartingPlayer() == Status.PLAYER_X) {
-						System.out.println(this + " - finished");
-						board.setStartingPlayer(Status.PLAYER_O);
-						board.setTurn(Status.PLAYER_O);
-						ComputerMove task = new ComputerMove(board, executor);
-						executor.execute(task);
-						System.out.println(task + " - schedulled");
-						return;
-					} else {
-						board.setStartingPlayer(Status.PLAYER_X);
-					}
-				}
-			}
-		} catch (InterruptedException e) {
-			System.out.println(this + " - interrupted");
-			return;
-		}
-		board.setTurn(Status.PLAYER_X);
-		System.out.println(this + " - finished");
+		return TTTModel.makeNextMove(position, Status.PLAYER_O);
+	}
+
+	public int getGeneration() {
+		return generation;
 	}
 
 	public String toString() {
@@ -99,113 +85,300 @@ class ComputerMove implements Runnable {
 /**
  * Game board window used to run gameplay
  */
-class BoardWindow extends JDialog {
+class BoardWindow extends JDialog implements BoardListener {
 	// Start with cross
 	private TTTBoard board;
-	ExecutorService executor = Executors.newSingleThreadExecutor();
+	private BoardCanvas canvas;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	// Search running while the human is thinking
+	private Future<?> ponderTask;
+	private Future<?> searchTask;
+	// Game number, results of searches for earlier games are dropped
+	private int generation;
 
 	// Initialize game board
-	BoardWindow(JFrame parent, int dim) {
+	BoardWindow(JFrame parent, int dim, int winLength) {
 		super(parent, "Gameplay", true);
 		// Used when we comment out above line to allow to run many gameplays from one main window
 		//setTitle("Gameplay");
 
 		// Initialize board model
-		board = new TTTBoard(dim);
-
-		// Setup active grids as JPanels in GridLayout Dialog window
-		setLayout(new GridLayout(dim, dim));
-		for (int i = 0; i < dim; i++) {
-			for (int j = 0; j < dim; j++) {
-				BoardGrid bg = new BoardGrid(i, j);
-				board.assignPanelToGrid(i, j, bg);
-				add(bg);
-			}
-		}
+		board = new TTTBoard(dim, winLength);
+		board.addBoardListener(this);
+		if (TTTGame.gameLog != null)
+			board.addBoardListener(new GameRecorder(board, TTTGame.gameLog));
 
 		// ((limitMax - limitMin) * (baseMax - value) / (baseMax - baseMin)) + limitMin;
-		int boxSize = (int) ((15 * (6 - dim) / 3) + 90);
-		setSize(dim * boxSize, dim * boxSize);
+		int boxSize = Math.max(32, (15 * (6 - dim) / 3) + 90);
+
+		// Whole board is drawn by one component, scrolled when it does not fit
+		canvas = new BoardCanvas(boxSize);
+		JScrollPane scrollPane = new JScrollPane(canvas);
+		int viewSize = Math.min(dim * boxSize, BoardCanvas.MAX_VIEW_SIZE);
+		scrollPane.getViewport().setPreferredSize(new Dimension(viewSize, viewSize));
+		add(scrollPane);
+		pack();
 
 		// setDefaultCloseOperation(DISPOSE_ON_CLOSE);
 		// Shutdown computer move computation thread
 		addWindowListener(new WindowAdapter() {
 			@Override
 			public void windowClosing(WindowEvent e) {
+				cancelSearches();
 				executor.shutdownNow();
 				e.getWindow().dispose();
 			}
 		});
 	}
-	
+
+	/**
+	 * Search replies to the human moves until the human moves
+	 */
+	void startPondering() {
+		if (!TTTModel.isPondering() || board.isGameOver())
+			return;
+		TTTBoard position = board.clone();
+		ponderTask = executor.submit(() -> {
+			try {
+				TTTModel.ponder(position, Status.PLAYER_X);
+			} catch (InterruptedException e) {
+				// Human has moved
+			}
+		});
+	}
+
+	void stopPondering() {
+		Future<?> task = ponderTask;
+		if (task != null)
+			task.cancel(true);
+	}
+
+	/*
+	 * Search the computer move on the computer move thread, the result
+	 * is played on the event dispatch thread
+	 */
+	private void startComputerMove() {
+		board.setTurn(Status.PLAYER_O);
+		if (executor.isShutdown())
+			return;
+		ComputerMove task = new ComputerMove(board.clone(), generation);
+		CompletableFuture<Move> result = new CompletableFuture<>();
+		searchTask = executor.submit(() -> {
+			try {
+				result.complete(task.call());
+			} catch (Throwable e) {
+				result.completeExceptionally(e);
+			}
+		});
+		result.whenCompleteAsync((move, error) -> computerMoved(task, move, error), SwingUtilities::invokeLater);
+		System.out.println(task + " - schedulled");
+	}
+
+	private void computerMoved(ComputerMove task, Move move, Throwable error) {
+		if (task.getGeneration() != generation) {
+			System.out.println(task + " - dropped, game is over");
+			return;
+		}
+		if (error != null) {
+			System.out.println(task + " - failed: " + error);
+			return;
+		}
+		System.out.println(task + " - finished");
+		if (move != null) {
+			System.out.println("Move found: " + move);
+			board.move(move.getRow(), move.getCol(), Status.PLAYER_O);
+			System.out.println(board);
+			if (finishGame())
+				return;
+		}
+		board.setTurn(Status.PLAYER_X);
+		startPondering();
+	}
+
+	/*
+	 * Show the result and start the next game if the game is over,
+	 * players take turns to start
+	 */
+	private boolean finishGame() {
+		Status gameResult = board.getGameResult();
+		if (gameResult == Status.IN_PROGRESS)
+			return false;
+		GUIUtils.showResult(gameResult);
+		newGame(board.getStartingPlayer() == Status.PLAYER_X ? Status.PLAYER_O : Status.PLAYER_X);
+		return true;
+	}
+
+	private void newGame(Status startingPlayer) {
+		cancelSearches();
+		board.reset();
+		board.setStartingPlayer(startingPlayer);
+		if (startingPlayer == Status.PLAYER_O) {
+			startComputerMove();
+		} else {
+			board.setTurn(Status.PLAYER_X);
+			startPondering();
+		}
+	}
+
+	// Results of searches started before are dropped
+	private void cancelSearches() {
+		generation++;
+		stopPondering();
+		if (searchTask != null)
+			searchTask.cancel(true);
+	}
+
+	// Board changes come from the event dispatch thread
+	@Override
+	public void cellChanged(int row, int col, Status player) {
+		canvas.repaintCell(row, col);
+	}
+
+	@Override
+	public void boardReset() {
+		canvas.repaint();
+	}
+
+	// Add game logic for user
+	private void humanMove(int row, int col) {
+		if (board.getGridStatus(row, col) == Status.EMPTY && board.getTurn() == Status.PLAYER_X) {
+			stopPondering();
+			board.move(row, col, Status.PLAYER_X); System.out.println(board);
+			if (!finishGame())
+				startComputerMove();
+		}
+	}
+
 	/**
-	 * Board grid
+	 * Board drawn as a single component
+	 *
+	 * Cells are drawn from images prepared once for the current cell size,
+	 * only cells in the clip area are drawn, so a changed cell repaints just
+	 * its own rectangle. Clicks are mapped to cells by coordinates.
+	 * Ctrl + mouse wheel or Ctrl + plus/minus zooms the board.
 	 */
-	public class BoardGrid extends JPanel {
-		private final int row, col;
-
-		// Initialize board grid
-		BoardGrid(int row, int col) {
-			// Assign board coordinates to this grid
-			this.col = col; this.row = row;
-			
-			// Make grid responsive to mouse click
+	class BoardCanvas extends JComponent {
+		static final int MAX_VIEW_SIZE = 800;
+		private static final int MIN_CELL_SIZE = 12;
+		private static final int MAX_CELL_SIZE = 160;
+
+		private int cellSize;
+		// Cell images indexed by Status ordinal, null until the first paint after zoom
+		private Image[] sprites;
+
+		BoardCanvas(int cellSize) {
+			this.cellSize = cellSize;
+			setOpaque(true);
+			setFocusable(true);
+
+			// Make board responsive to mouse click
 			addMouseListener(new MouseAdapter() {
 				public void mousePressed(MouseEvent e) {
-					// Add game logic for user
-					if (board.getGridStatus(row, col) == Status.EMPTY && board.getTurn() == Status.PLAYER_X) {
-						board.move(row, col, Status.PLAYER_X); System.out.println(board);
-						repaint(); // sign marked by move made above
-						Status gameResult = board.getGameResult();
-						if (gameResult != Status.IN_PROGRESS) {
-							GUIUtils.showResult(gameResult);
-							board.reset();
-							board.repaint();
-							if (board.getStartingPlayer() == Status.PLAYER_O) {
-								board.setStartingPlayer(Status.PLAYER_X);
-								return;
-							} else {
-								board.setStartingPlayer(Status.PLAYER_O);
-							}
-						}
-						
-						// Schedule computer move computation
-						board.setTurn(Status.PLAYER_O);
-						if (executor.isShutdown()) {
-							System.out.println("Start new queue if executor was shutdown for eny reason!");
-							executor = Executors.newSingleThreadExecutor();
-						}
-						ComputerMove task = new ComputerMove(board, executor);
-						executor.execute(task);
-						System.out.println(task + " - schedulled");
-					}
+					requestFocusInWindow();
+					int row = e.getY() / BoardCanvas.this.cellSize, col = e.getX() / BoardCanvas.this.cellSize;
+					if (row < board.getDimension() && col < board.getDimension())
+						humanMove(row, col);
+				}
+			});
+			addMouseWheelListener((e) -> {
+				if (e.isControlDown())
+					zoom(e.getWheelRotation() < 0 ? 1.25 : 0.8, e.getPoint());
+				else {
+					// Scroll as if the canvas had no wheel listener
+					Container scrollPane = SwingUtilities.getAncestorOfClass(JScrollPane.class, this);
+					scrollPane.dispatchEvent(SwingUtilities.convertMouseEvent(this, e, scrollPane));
+				}
+			});
+			addKeyListener(new KeyAdapter() {
+				public void keyPressed(KeyEvent e) {
+					if (!e.isControlDown())
+						return;
+					Rectangle view = getVisibleRect();
+					Point center = new Point((int) view.getCenterX(), (int) view.getCenterY());
+					if (e.getKeyCode() == KeyEvent.VK_PLUS || e.getKeyCode() == KeyEvent.VK_EQUALS
+							|| e.getKeyCode() == KeyEvent.VK_ADD)
+						zoom(1.25, center);
+					else if (e.getKeyCode() == KeyEvent.VK_MINUS || e.getKeyCode() == KeyEvent.VK_SUBTRACT)
+						zoom(0.8, center);
 				}
 			});
 		}
 
-		// Draw grid 
-		public void paintComponent(Graphics g) {
-			super.paintComponent(g);
-			
-			// Draw grid border
-			int cornerX = 1, cornerY = 1;
-			int width = getSize().width - 2, height = getSize().height - 2;
-			
-			g.drawRect(cornerX, cornerY, width, height);
-
-			// Draw sign based on grid status
-			Graphics2D g2 = (Graphics2D) g;
-			g2.setStroke(new BasicStroke(3));
-			cornerX = width / 4; cornerY = height / 4;
-			width = width / 2; height = height / 2;
-			
-			if (board.getGridStatus(row, col) == Status.PLAYER_X) {
-				g.drawLine(cornerX, cornerY, cornerX + width, cornerY + height);
-				g.drawLine(cornerX, cornerY + height, cornerX + width, cornerY);
-			} else if (board.getGridStatus(row, col) == Status.PLAYER_O) {
-				//g.setColor(Color.BLUE);
-				g.drawOval(cornerX, cornerY, cornerX + width / 2, cornerY + height / 2);
+		void repaintCell(int row, int col) {
+			repaint(col * cellSize, row * cellSize, cellSize, cellSize);
+		}
+
+		/*
+		 * Change cell size keeping the board point under anchor in place
+		 */
+		private void zoom(double factor, Point anchor) {
+			int size = Math.max(MIN_CELL_SIZE, Math.min(MAX_CELL_SIZE, (int) Math.round(cellSize * factor)));
+			if (size == cellSize)
+				return;
+			Rectangle view = getVisibleRect();
+			double scale = (double) size / cellSize;
+			cellSize = size;
+			sprites = null;
+			revalidate();
+			view.x = (int) (anchor.x * scale) - (anchor.x - view.x);
+			view.y = (int) (anchor.y * scale) - (anchor.y - view.y);
+			// Size is updated by the scroll pane layout later
+			setSize(getPreferredSize());
+			scrollRectToVisible(view);
+			repaint();
+		}
+
+		@Override
+		public Dimension getPreferredSize() {
+			int size = board.getDimension() * cellSize;
+			return new Dimension(size, size);
+		}
+
+		// Draw cells in the clip area
+		@Override
+		protected void paintComponent(Graphics g) {
+			Rectangle clip = g.getClipBounds();
+			if (clip == null)
+				clip = new Rectangle(getSize());
+			g.setColor(getParent().getBackground());
+			g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+			if (sprites == null)
+				sprites = createSprites(cellSize);
+			int dim = board.getDimension();
+			int firstRow = clip.y / cellSize, lastRow = Math.min(dim - 1, (clip.y + clip.height - 1) / cellSize);
+			int firstCol = clip.x / cellSize, lastCol = Math.min(dim - 1, (clip.x + clip.width - 1) / cellSize);
+			for (int row = firstRow; row <= lastRow; row++)
+				for (int col = firstCol; col <= lastCol; col++)
+					g.drawImage(sprites[board.getGridStatus(row, col).ordinal()], col * cellSize, row * cellSize, null);
+		}
+
+		private Image[] createSprites(int size) {
+			Image[] images = new Image[Status.values().length];
+			for (Status status : new Status[] { Status.EMPTY, Status.PLAYER_X, Status.PLAYER_O }) {
+				BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+				Graphics2D g = (Graphics2D) image.getGraphics();
+				g.setColor(getParent().getBackground());
+				g.fillRect(0, 0, size, size);
+				g.setColor(getForeground());
+				g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+				// Draw grid border
+				g.drawRect(1, 1, size - 2, size - 2);
+
+				// Draw sign, line width follows the zoom
+				g.setStroke(new BasicStroke(Math.max(1f, size / 30f)));
+				int corner = size / 4, width = size / 2;
+				if (status == Status.PLAYER_X) {
+					g.drawLine(corner, corner, corner + width, corner + width);
+					g.drawLine(corner, corner + width, corner + width, corner);
+				} else if (status == Status.PLAYER_O) {
+					g.drawOval(corner, corner, width, width);
+				}
+				g.dispose();
+				images[status.ordinal()] = image;
 			}
+			return images;
 		}
 	}
 }
@@ -214,7 +387,10 @@ class BoardWindow extends JDialog {
  * Main Tic Tac Toe game window 
  */
 public class TTTGame {
-	private int dim = 3, cols = 3;
+	private static final int MAX_DIM = 50;
+	// Finished games are recorded here, null if the log cannot be opened
+	static GameLog gameLog;
+	private int dim = 3, winLength = 3;
 
 	/**
 	 * Input data panel
@@ -224,17 +400,25 @@ public class TTTGame {
 		public SpinnerPanel() {
 			super(new SpringLayout());
 
-			String[] labels = { "Board dimension: " };
+			String[] labels = { "Board dimension: ", "Signs in a row: " };
 			int numPairs = labels.length;
 
-			// Add the first labeled spinner
-			SpinnerModel rowsModel = new SpinnerNumberModel(dim, dim - 0, dim + 3, 1);
+			// Add the labeled spinners
+			SpinnerNumberModel rowsModel = new SpinnerNumberModel(dim, dim - 0, MAX_DIM, 1);
 			JSpinner rowsSpinner = addLabeledSpinner(this, labels[0], rowsModel);
+			SpinnerNumberModel winModel = new SpinnerNumberModel(winLength, 3, dim, 1);
+			JSpinner winSpinner = addLabeledSpinner(this, labels[1], winModel);
 
 			// Lay out the panel: rows, initX, initY, xPad, yPad
 			SpringUtilities.makeCompactGrid(this, numPairs, 2, 10, 10, 6, 10);
 
-			rowsSpinner.addChangeListener((e) -> dim = (int) rowsModel.getValue());
+			// Full row is needed to win by default, k-in-a-row if lowered
+			rowsSpinner.addChangeListener((e) -> {
+				dim = (int) rowsModel.getValue();
+				winModel.setMaximum(dim);
+				winModel.setValue(dim);
+			});
+			winSpinner.addChangeListener((e) -> winLength = (int) winModel.getValue());
 		}
 
 		protected JSpinner addLabeledSpinner(Container c, String label, SpinnerModel model) {
@@ -261,7 +445,7 @@ public class TTTGame {
 		JButton btnNewGame = new JButton("New game");
 		btnNewGame.addActionListener((e) -> {
 			System.out.println("Start new GAMEPLAY:");
-			JDialog board = new BoardWindow(null, dim);
+			JDialog board = new BoardWindow(null, dim, winLength);
 			board.setVisible(true);
 			// Printed properly only when one gameplay is allowed
 			// Otherwise it will be printed just after "Start the GAMEPLAY:"
@@ -283,6 +467,22 @@ public class TTTGame {
 
 	// Run the game
 	public static void main(String[] args) {
+		try {
+			gameLog = new GameLog(GameLog.defaultDirectory(), 64 * 1024 * 1024);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					gameLog.close();
+				} catch (IOException e) {
+					System.out.println("Cannot write game log: " + e);
+				}
+			}));
+		} catch (IOException e) {
+			System.out.println("Games are not recorded: " + e);
+		}
+		
+		// 4x4 moves are searched until the table is ready
+		SolvedTable4x4.loadInBackground();
+		
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
 				new TTTGame();
@@ -1,10 +1,10 @@
 package games.tictactoe;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
-import javax.swing.JPanel;
-
 /**
  * @author Mario Misiuna 
  * 
@@ -69,13 +69,293 @@ class Move implements Comparable<Move> {
 	}	
 }
 
+/**
+ * Precomputed winning lines for boards of given dimension and win length.
+ * Cell (row, col) is kept on bit (row * dim + col) of the bitboard,
+ * boards larger than 8x8 span several 64 bit words.
+ * 
+ * Line is every run of winLength cells in a row, column or diagonal,
+ * so with winLength equal to the dimension lines are numbered rows first,
+ * then columns, main and anti diagonal. For k-in-a-row games lines are
+ * windows sliding along every direction. Lines are kept as lists of their
+ * cells and the board counts signs on them, so the result of a move is
+ * checked only on the lines going through the played cell.
+ * 
+ * For the static evaluation of the board every line still open for only
+ * one player is worth the weight of the number of signs placed on it.
+ */
+final class LineTables {
+	private static final Map<Integer, LineTables> cache = new ConcurrentHashMap<>();
+	// Row and column steps of lines: rows, columns, diagonals, anti diagonals
+	private static final int[][] DIRECTIONS = { { 0, 1 }, { 1, 0 }, { 1, 1 }, { 1, -1 } };
+	
+	private final int dim;
+	private final int winLength;
+	private final int words;
+	private final long[] boardMask;
+	private final int[][] cellLines;
+	private final int[][] lineCells;
+	// Value of open line by number of signs on it, grows 4 times with every sign
+	private final int[] weights;
+	
+	private LineTables(int dim, int winLength) {
+		this.dim = dim;
+		this.winLength = winLength;
+		words = (dim * dim + 63) >>> 6;
+		boardMask = new long[words];
+		for (int row = 0; row < dim; row++)
+			for (int col = 0; col < dim; col++)
+				set(boardMask, row, col);
+		
+		List<int[]> cellsOfLine = new ArrayList<>();
+		List<List<Integer>> linesOfCell = new ArrayList<>();
+		for (int cell = 0; cell < dim * dim; cell++)
+			linesOfCell.add(new ArrayList<>());
+		for (int[] direction : DIRECTIONS)
+			for (int row = 0; row < dim; row++)
+				for (int col = 0; col < dim; col++) {
+					int lastRow = row + (winLength - 1) * direction[0];
+					int lastCol = col + (winLength - 1) * direction[1];
+					if (lastRow >= dim || lastCol < 0 || lastCol >= dim)
+						continue;
+					int[] cells = new int[winLength];
+					for (int i = 0; i < winLength; i++) {
+						int r = row + i * direction[0], c = col + i * direction[1];
+						cells[i] = r * dim + c;
+						linesOfCell.get(r * dim + c).add(cellsOfLine.size());
+					}
+					cellsOfLine.add(cells);
+				}
+		lineCells = cellsOfLine.toArray(new int[0][]);
+		
+		cellLines = new int[dim * dim][];
+		for (int cell = 0; cell < dim * dim; cell++)
+			cellLines[cell] = linesOfCell.get(cell).stream().mapToInt(Integer::intValue).toArray();
+		
+		weights = new int[winLength + 1];
+		for (int count = 1; count <= winLength; count++)
+			weights[count] = 1 << Math.min(2 * (count - 1), 20);
+	}
+	
+	/**
+	 * @return shared line tables for the given board dimension
+	 * and number of signs in a row needed to win
+	 */
+	public static LineTables forDimension(int dim, int winLength) {
+		return cache.computeIfAbsent(dim << 16 | winLength, key -> new LineTables(key >>> 16, key & 0xFFFF));
+	}
+	
+	private void set(long[] bits, int row, int col) {
+		int cell = row * dim + col;
+		bits[cell >>> 6] |= 1L << cell;
+	}
+	
+	/**
+	 * @return number of 64 bit words needed to hold one player bitboard
+	 */
+	public int words() {
+		return words;
+	}
+	
+	/**
+	 * @return bits of all board cells in given word
+	 */
+	public long boardMask(int word) {
+		return boardMask[word];
+	}
+	
+	/**
+	 * @return number of winning lines on the board
+	 */
+	public int lineCount() {
+		return lineCells.length;
+	}
+	
+	/**
+	 * @return number of cells needed to complete a line
+	 */
+	public int lineLength() {
+		return winLength;
+	}
+	
+	/**
+	 * @return evaluation of line with given number of signs of each player
+	 * from PLAYER_X point of view, 0 if line is blocked for both players
+	 */
+	public int lineValue(int xCount, int oCount) {
+		if (oCount == 0)
+			return weights[xCount];
+		if (xCount == 0)
+			return -weights[oCount];
+		return 0;
+	}
+	
+	/**
+	 * @return indexes of all lines going through given cell
+	 */
+	public int[] linesThrough(int cell) {
+		return cellLines[cell];
+	}
+	
+	/**
+	 * @return cells (row * dim + col) of given line
+	 */
+	public int[] cellsOf(int line) {
+		return lineCells[line];
+	}
+}
+
+/**
+ * Random keys used to hash board positions, shared per board dimension
+ * and win length: the same signs are different positions in games with
+ * different win length, so they must not share hashes in shared tables.
+ * Keys are generated from fixed seed, so hashes are stable between runs.
+ */
+final class Zobrist {
+	private static final Map<Integer, Zobrist> cache = new ConcurrentHashMap<>();
+	
+	private final long[] xKeys;
+	private final long[] oKeys;
+	private final long sideKey;
+	
+	private Zobrist(int dim, int winLength) {
+		Random random = new Random(0x7177_7177L * dim + 0x5851_F42DL * winLength);
+		xKeys = new long[dim * dim];
+		oKeys = new long[dim * dim];
+		for (int cell = 0; cell < dim * dim; cell++) {
+			xKeys[cell] = random.nextLong();
+			oKeys[cell] = random.nextLong();
+		}
+		sideKey = random.nextLong();
+	}
+	
+	/**
+	 * @return shared keys for the given board dimension and number
+	 * of signs in a row needed to win
+	 */
+	public static Zobrist forDimension(int dim, int winLength) {
+		return cache.computeIfAbsent(dim << 16 | winLength, key -> new Zobrist(key >>> 16, key & 0xFFFF));
+	}
+	
+	/**
+	 * @return key of player sign placed on given cell
+	 */
+	public long key(Status player, int cell) {
+		return player == Status.PLAYER_X ? xKeys[cell] : oKeys[cell];
+	}
+	
+	/**
+	 * @return key added when PLAYER_O is to move
+	 */
+	public long sideKey() {
+		return sideKey;
+	}
+}
+
+/**
+ * The 8 symmetries of a square board (rotations and reflections)
+ * kept as cell permutations, shared per board dimension.
+ * Symmetry 0 is the identity.
+ */
+final class Symmetry {
+	public static final int COUNT = 8;
+	private static final Map<Integer, Symmetry> cache = new ConcurrentHashMap<>();
+	
+	private final int[][] permutations = new int[COUNT][];
+	private final int[][] inverses = new int[COUNT][];
+	
+	private Symmetry(int dim) {
+		for (int s = 0; s < COUNT; s++) {
+			permutations[s] = new int[dim * dim];
+			inverses[s] = new int[dim * dim];
+		}
+		int last = dim - 1;
+		for (int row = 0; row < dim; row++)
+			for (int col = 0; col < dim; col++) {
+				int cell = row * dim + col;
+				permutations[0][cell] = cell;
+				permutations[1][cell] = col * dim + (last - row);           // rotate 90
+				permutations[2][cell] = (last - row) * dim + (last - col);  // rotate 180
+				permutations[3][cell] = (last - col) * dim + row;           // rotate 270
+				permutations[4][cell] = row * dim + (last - col);           // mirror
+				permutations[5][cell] = (last - row) * dim + col;           // flip
+				permutations[6][cell] = col * dim + row;                    // transpose
+				permutations[7][cell] = (last - col) * dim + (last - row);  // anti transpose
+			}
+		for (int s = 0; s < COUNT; s++)
+			for (int cell = 0; cell < dim * dim; cell++)
+				inverses[s][permutations[s][cell]] = cell;
+	}
+	
+	/**
+	 * @return shared symmetries for the given board dimension
+	 */
+	public static Symmetry forDimension(int dim) {
+		return cache.computeIfAbsent(dim, Symmetry::new);
+	}
+	
+	/**
+	 * @return cell given cell is mapped to by symmetry s
+	 */
+	public int apply(int s, int cell) {
+		return permutations[s][cell];
+	}
+	
+	/**
+	 * @return cell which is mapped to given cell by symmetry s
+	 */
+	public int invert(int s, int cell) {
+		return inverses[s][cell];
+	}
+}
+
 /*
  * Tic-Tac-Toe board game representation
+ * 
+ * Grid state is kept as one bitboard per player, so copying the board
+ * does not need to walk the grid. Every line keeps count of signs
+ * placed by each player, which gives game result right after the move.
+ * Zobrist hash of the position is updated with every move as well,
+ * together with hashes of its 7 symmetric images. The smallest of them
+ * identifies the whole class of symmetric positions.
+ * Static evaluation (sum of open line values) is kept up to date too.
+ * 
+ * In k-in-a-row games (win length smaller than the dimension) the board
+ * tracks cells near placed signs, the only moves worth searching there.
+ * 
+ * Threat index keeps for every player the cells completing one of his
+ * lines: lines with all signs but one and none of the opponent. A line
+ * becomes a threat or stops being one only when the move changes its
+ * counters, so the index follows every move and undo at little cost.
  */
 class TTTBoard implements Cloneable {
+	// Distance from placed signs within which cells are candidate moves
+	private static final int NEIGHBOURHOOD = 2;
+	
 	private final int dim;
-	private Status[][] gridStatus;
-	private JPanel[][] gridPanel;
+	private final int winLength;
+	private final LineTables lineTables;
+	private final Zobrist zobrist;
+	private final Symmetry symmetry;
+	private long[] xBits;
+	private long[] oBits;
+	// Signs on each line: [line] for PLAYER_X, [lineCount + line] for PLAYER_O
+	private int[] lineCounts;
+	private int emptyCount;
+	private int evaluation;
+	// Position hash after applying each of the symmetries, identity first
+	private long[] hashes;
+	// Signs around each cell and bits of cells with any, null in standard game
+	private int[] neighbours;
+	private long[] nearBits;
+	// Threatened lines through each cell: [cell] for PLAYER_X, [dim * dim + cell] for PLAYER_O
+	private int[] threats;
+	// Bits of cells with any threat of the player
+	private long[] xThreats;
+	private long[] oThreats;
+	private Status result = Status.IN_PROGRESS;
+	// Views of this board, null until the first one is added, never copied
+	private volatile List<BoardListener> listeners;
 	private Status turn = Status.PLAYER_X;
 	private Status startingPlayer = Status.PLAYER_X;
 	
@@ -90,13 +370,34 @@ class TTTBoard implements Cloneable {
 	 * Initialize empty board with the given dimension [dim, dim]
 	 */
 	public TTTBoard(int dim) {
+		this(dim, dim);
+	}
+
+	/**
+	 * Initialize empty board with the given dimension [dim, dim]
+	 * for the game won by winLength signs in a row
+	 */
+	public TTTBoard(int dim, int winLength) {
+		if (winLength < 1 || winLength > dim)
+			throw new IllegalArgumentException("Win length " + winLength + " does not fit board " + dim);
 		this.dim = dim;
-		gridStatus = new Status[dim][dim];
-		gridPanel = new JPanel[dim][dim];
-		
-		for (int row = 0; row < dim; row++)
-			for (int col = 0; col < dim; col++)
-				gridStatus[row][col] = Status.EMPTY;				
+		this.winLength = winLength;
+		lineTables = LineTables.forDimension(dim, winLength);
+		zobrist = Zobrist.forDimension(dim, winLength);
+		symmetry = Symmetry.forDimension(dim);
+		xBits = new long[lineTables.words()];
+		oBits = new long[lineTables.words()];
+		lineCounts = new int[2 * lineTables.lineCount()];
+		emptyCount = dim * dim;
+		hashes = new long[Symmetry.COUNT];
+		if (winLength < dim) {
+			neighbours = new int[dim * dim];
+			nearBits = new long[lineTables.words()];
+		}
+		threats = new int[2 * dim * dim];
+		xThreats = new long[lineTables.words()];
+		oThreats = new long[lineTables.words()];
+		initThreats();
 	}
 
 	/**
@@ -104,20 +405,45 @@ class TTTBoard implements Cloneable {
 	 */
 	public TTTBoard(TTTBoard board) {
 		dim = board.dim;
-		gridPanel = new JPanel[dim][dim];
-		gridStatus = new Status[dim][];
-		
-		for (int row = 0; row < dim; ++row)
-			gridStatus[row] = Arrays.copyOf(board.gridStatus[row], dim);
+		winLength = board.winLength;
+		lineTables = board.lineTables;
+		zobrist = board.zobrist;
+		symmetry = board.symmetry;
+		xBits = board.xBits.clone();
+		oBits = board.oBits.clone();
+		lineCounts = board.lineCounts.clone();
+		emptyCount = board.emptyCount;
+		evaluation = board.evaluation;
+		hashes = board.hashes.clone();
+		if (board.neighbours != null) {
+			neighbours = board.neighbours.clone();
+			nearBits = board.nearBits.clone();
+		}
+		threats = board.threats.clone();
+		xThreats = board.xThreats.clone();
+		oThreats = board.oThreats.clone();
+		result = board.result;
 	}
 
 	/**
 	 * Reset board to start new game on this same board
 	 */
 	public void reset() {
-		for (int row = 0; row < dim; row++)
-			for (int col = 0; col < dim; col++)
-				gridStatus[row][col] = Status.EMPTY;
+		Arrays.fill(xBits, 0L);
+		Arrays.fill(oBits, 0L);
+		Arrays.fill(lineCounts, 0);
+		emptyCount = dim * dim;
+		evaluation = 0;
+		Arrays.fill(hashes, 0L);
+		if (neighbours != null) {
+			Arrays.fill(neighbours, 0);
+			Arrays.fill(nearBits, 0L);
+		}
+		initThreats();
+		result = Status.IN_PROGRESS;
+		if (listeners != null)
+			for (BoardListener listener : listeners)
+				listener.boardReset();
 	}
 
 	/**
@@ -128,26 +454,247 @@ class TTTBoard implements Cloneable {
 		return dim;
 	}
 	
+	/**
+	 * @return number of signs in a row needed to win
+	 */
+	public int getWinLength() {
+		return winLength;
+	}
+	
+	/**
+	 * @return number of lines going through the cell (row * dim + col)
+	 */
+	public int getLineCount(int cell) {
+		return lineTables.linesThrough(cell).length;
+	}
+	
 	/**
 	 * @param row
 	 * @param col
 	 * @return the status (EMPTY, PLAYERX, PLAYERO) of the grid at position (row, col)
 	 */
 	public Status getGridStatus(int row, int col) {
-		return gridStatus[row][col];
+		int cell = row * dim + col;
+		long bit = 1L << cell;
+		if ((xBits[cell >>> 6] & bit) != 0) return Status.PLAYER_X;
+		if ((oBits[cell >>> 6] & bit) != 0) return Status.PLAYER_O;
+		return Status.EMPTY;
 	}
 	
 	/**
 	 * Place player sign (PLAYERX or PLAYERO) on the board
-	 * at position (row, col) if pointed board grid is not empty
+	 * at position (row, col) if pointed board grid is empty
+	 * and notify board listeners if the sign was placed
 	 * @param row
 	 * @param col
 	 * @param player
 	 */
 	protected void move(int row, int col, Status player) {
-		if (gridStatus[row][col] == Status.EMPTY) {
-			gridStatus[row][col] = player;
+		if (makeMove(row * dim + col, player) && listeners != null)
+			for (BoardListener listener : listeners)
+				listener.cellChanged(row, col, player);
+	}
+	
+	/**
+	 * Place player sign on the cell (row * dim + col) if it is empty,
+	 * the move can be taken back with undoMove. Used by the search,
+	 * board listeners are not notified
+	 * @param cell
+	 * @param player
+	 * @return false if the move was ignored: the cell is not empty
+	 * or player is not PLAYER_X or PLAYER_O
+	 */
+	public boolean makeMove(int cell, Status player) {
+		int w = cell >>> 6;
+		long bit = 1L << cell;
+		if (((xBits[w] | oBits[w]) & bit) != 0)
+			return false;
+		
+		int offset;
+		if (player == Status.PLAYER_X) {
+			xBits[w] |= bit;
+			offset = 0;
+		} else if (player == Status.PLAYER_O) {
+			oBits[w] |= bit;
+			offset = lineTables.lineCount();
+		} else {
+			return false;
+		}
+		
+		emptyCount--;
+		if (neighbours != null)
+			updateNeighbours(cell, 1);
+		for (int s = 0; s < Symmetry.COUNT; s++)
+			hashes[s] ^= zobrist.key(player, symmetry.apply(s, cell));
+		int lines = lineTables.lineCount();
+		int open = lineTables.lineLength() - 1;
+		for (int line : lineTables.linesThrough(cell)) {
+			int x = lineCounts[line], o = lineCounts[lines + line];
+			evaluation -= lineTables.lineValue(x, o);
+			// Threat of either player on this line could only be on the played cell
+			if (x == open && o == 0)
+				updateThreat(cell, Status.PLAYER_X, -1);
+			if (o == open && x == 0)
+				updateThreat(cell, Status.PLAYER_O, -1);
+			if (++lineCounts[offset + line] == lineTables.lineLength() && result == Status.IN_PROGRESS)
+				result = player;
+			x = lineCounts[line];
+			o = lineCounts[lines + line];
+			evaluation += lineTables.lineValue(x, o);
+			if (x == open && o == 0 || o == open && x == 0)
+				updateThreat(emptyCell(line, -1), player, 1);
 		}
+		if (emptyCount == 0 && result == Status.IN_PROGRESS)
+			result = Status.DRAW;
+		return true;
+	}
+	
+	/**
+	 * Take back the sign placed on the cell (row * dim + col)
+	 * @param cell
+	 */
+	public void undoMove(int cell) {
+		int w = cell >>> 6;
+		long bit = 1L << cell;
+		
+		Status player;
+		int offset;
+		if ((xBits[w] & bit) != 0) {
+			xBits[w] &= ~bit;
+			player = Status.PLAYER_X;
+			offset = 0;
+		} else if ((oBits[w] & bit) != 0) {
+			oBits[w] &= ~bit;
+			player = Status.PLAYER_O;
+			offset = lineTables.lineCount();
+		} else {
+			return;
+		}
+		
+		emptyCount++;
+		if (neighbours != null)
+			updateNeighbours(cell, -1);
+		for (int s = 0; s < Symmetry.COUNT; s++)
+			hashes[s] ^= zobrist.key(player, symmetry.apply(s, cell));
+		int lines = lineTables.lineCount();
+		int open = lineTables.lineLength() - 1;
+		for (int line : lineTables.linesThrough(cell)) {
+			int x = lineCounts[line], o = lineCounts[lines + line];
+			evaluation -= lineTables.lineValue(x, o);
+			if (x == open && o == 0 || o == open && x == 0)
+				updateThreat(emptyCell(line, cell), player, -1);
+			lineCounts[offset + line]--;
+			x = lineCounts[line];
+			o = lineCounts[lines + line];
+			evaluation += lineTables.lineValue(x, o);
+			// Line threatened again has the emptied cell as its only empty one
+			if (x == open && o == 0)
+				updateThreat(cell, Status.PLAYER_X, 1);
+			if (o == open && x == 0)
+				updateThreat(cell, Status.PLAYER_O, 1);
+		}
+		if (result != Status.IN_PROGRESS)
+			result = computeResult();
+	}
+	
+	/*
+	 * Find result from line counters, needed only when taking back
+	 * the move which ended the game
+	 */
+	private Status computeResult() {
+		int lines = lineTables.lineCount();
+		for (int line = 0; line < lines; line++) {
+			if (lineCounts[line] == lineTables.lineLength())
+				return Status.PLAYER_X;
+			if (lineCounts[lines + line] == lineTables.lineLength())
+				return Status.PLAYER_O;
+		}
+		return emptyCount == 0 ? Status.DRAW : Status.IN_PROGRESS;
+	}
+	
+	/*
+	 * Threats of an empty board: only lines of a single cell
+	 */
+	private void initThreats() {
+		Arrays.fill(threats, 0);
+		Arrays.fill(xThreats, 0L);
+		Arrays.fill(oThreats, 0L);
+		if (lineTables.lineLength() == 1)
+			for (int cell = 0; cell < dim * dim; cell++)
+				for (int i = 0; i < lineTables.linesThrough(cell).length; i++) {
+					updateThreat(cell, Status.PLAYER_X, 1);
+					updateThreat(cell, Status.PLAYER_O, 1);
+				}
+	}
+	
+	private void updateThreat(int cell, Status player, int delta) {
+		int index = player == Status.PLAYER_X ? cell : dim * dim + cell;
+		threats[index] += delta;
+		if (threats[index] == (delta > 0 ? 1 : 0))
+			(player == Status.PLAYER_X ? xThreats : oThreats)[cell >>> 6] ^= 1L << cell;
+	}
+	
+	/*
+	 * @return the empty cell of a line having all other cells filled,
+	 * skipped cell is being emptied by undo
+	 */
+	private int emptyCell(int line, int skipped) {
+		for (int cell : lineTables.cellsOf(line))
+			if (cell != skipped && ((xBits[cell >>> 6] | oBits[cell >>> 6]) & 1L << cell) == 0)
+				return cell;
+		throw new IllegalStateException("Line " + line + " is full");
+	}
+	
+	/**
+	 * @param player
+	 * @return a cell (row * dim + col) where the player completes a line,
+	 * -1 if there is none
+	 */
+	public int getThreatCell(Status player) {
+		long[] bits = player == Status.PLAYER_X ? xThreats : oThreats;
+		for (int w = 0; w < bits.length; w++)
+			if (bits[w] != 0)
+				return (w << 6) + Long.numberOfTrailingZeros(bits[w]);
+		return -1;
+	}
+	
+	/**
+	 * Store cells where the player completes a line in the given array
+	 * @param player
+	 * @param cells array big enough to hold all empty cells
+	 * @return number of such cells
+	 */
+	public int getThreatCells(Status player, int[] cells) {
+		long[] bits = player == Status.PLAYER_X ? xThreats : oThreats;
+		int n = 0;
+		for (int w = 0; w < bits.length; w++)
+			for (long b = bits[w]; b != 0; b &= b - 1)
+				cells[n++] = (w << 6) + Long.numberOfTrailingZeros(b);
+		return n;
+	}
+	
+	/**
+	 * @param cell
+	 * @param player
+	 * @return number of the player's lines completed by a sign on the cell
+	 */
+	public int getThreats(int cell, Status player) {
+		return threats[player == Status.PLAYER_X ? cell : dim * dim + cell];
+	}
+	
+	/*
+	 * Count signs near every cell, cells with a sign near them
+	 * are candidates for the next move
+	 */
+	private void updateNeighbours(int cell, int delta) {
+		int row = cell / dim, col = cell % dim;
+		for (int r = Math.max(0, row - NEIGHBOURHOOD); r <= Math.min(dim - 1, row + NEIGHBOURHOOD); r++)
+			for (int c = Math.max(0, col - NEIGHBOURHOOD); c <= Math.min(dim - 1, col + NEIGHBOURHOOD); c++) {
+				int near = r * dim + c;
+				neighbours[near] += delta;
+				if (neighbours[near] == (delta > 0 ? 1 : 0))
+					nearBits[near >>> 6] ^= 1L << near;
+			}
 	}
 	
 	/**
@@ -166,48 +713,70 @@ class TTTBoard implements Cloneable {
 	 * 	- IN_PROGRESS If game is in progress
 	 */
 	public Status getGameResult() {
-		List<List<Status>> lines = new ArrayList<>();
-		List<Status> newLine;
-		
-		// Add all possible winning lines to the lines list
-		
-		// Add rows
-		for (int row = 0; row < dim; row++) {
-			newLine = new ArrayList<>();
-			for (int col = 0; col < dim; col++)
-				newLine.add(gridStatus[row][col]);
-			lines.add(newLine);
-		}
-		
-		// Add columns
-		for (int col = 0; col < dim; col++) {
-			newLine = new ArrayList<>();
-			for (int row = 0; row < dim; row++)
-				newLine.add(gridStatus[row][col]);
-			lines.add(newLine);
-		}
-		
-		// Add diagonals
-		newLine = new ArrayList<>();
-		for (int row = 0; row < dim; row++)
-			newLine.add(gridStatus[row][row]);
-		lines.add(newLine);
-		
-		newLine = new ArrayList<>();
-		for (int row = 0; row < dim; row++)
-			newLine.add(gridStatus[dim-row-1][row]);
-		lines.add(newLine);
-		
-		// Check for winner
-		for (List<Status> line : lines)
-			if (line.get(0) != Status.EMPTY && new HashSet<>(line).size() == 1)
-					return line.get(0);
-		
-		// Check for draw
-		if (getPotentialMoves().size() == 0)
-			return Status.DRAW;
-		else
-			return Status.IN_PROGRESS;
+		return result;
+	}
+	
+	/**
+	 * @return static evaluation of the position from PLAYER_X point of view:
+	 * sum of values of lines still open for only one of the players
+	 */
+	public int getEvaluation() {
+		return evaluation;
+	}
+	
+	/**
+	 * @return number of empty grids left on the board
+	 */
+	public int getEmptyCount() {
+		return emptyCount;
+	}
+	
+	/**
+	 * @param toMove the player to move in this position
+	 * @return Zobrist hash of the position
+	 */
+	public long getHash(Status toMove) {
+		return getSymmetricHash(0, toMove);
+	}
+	
+	/**
+	 * @param s symmetry applied to the position
+	 * @param toMove the player to move in this position
+	 * @return Zobrist hash of the position transformed by symmetry s
+	 */
+	public long getSymmetricHash(int s, Status toMove) {
+		return toMove == Status.PLAYER_O ? hashes[s] ^ zobrist.sideKey() : hashes[s];
+	}
+	
+	/**
+	 * @return symmetry which maps this position to the canonical
+	 * (smallest hash) representative of all its symmetric images
+	 */
+	public int getCanonicalSymmetry() {
+		int canonical = 0;
+		for (int s = 1; s < Symmetry.COUNT; s++)
+			if (hashes[s] < hashes[canonical])
+				canonical = s;
+		return canonical;
+	}
+	
+	/**
+	 * @return bit mask of symmetries (other than identity)
+	 * which leave this position unchanged
+	 */
+	public int getStabilizer() {
+		int stabilizer = 0;
+		for (int s = 1; s < Symmetry.COUNT; s++)
+			if (hashes[s] == hashes[0])
+				stabilizer |= 1 << s;
+		return stabilizer;
+	}
+	
+	/**
+	 * @return symmetries of the board
+	 */
+	public Symmetry getSymmetry() {
+		return symmetry;
 	}
 	
 	public boolean isGameOver() {
@@ -223,7 +792,7 @@ class TTTBoard implements Cloneable {
 		
 		for (int row = 0; row < dim; row++)
 			for (int col = 0; col < dim; col++)
-				if (gridStatus[row][col] == Status.EMPTY) {
+				if (getGridStatus(row, col) == Status.EMPTY) {
 					potentialMoves.add(new Move(row, col));
 				};
 		
@@ -231,15 +800,67 @@ class TTTBoard implements Cloneable {
 	}
 
 	/**
-	 * Get deep copy of TTTBoard excluding gridPanel array
+	 * Store empty cells (row * dim + col) in the given array
+	 * @param cells array big enough to hold all empty cells
+	 * @return number of empty cells
+	 */
+	public int getEmptyCells(int[] cells) {
+		int n = 0;
+		for (int w = 0; w < xBits.length; w++) {
+			long empty = ~(xBits[w] | oBits[w]) & lineTables.boardMask(w);
+			while (empty != 0) {
+				cells[n++] = (w << 6) + Long.numberOfTrailingZeros(empty);
+				empty &= empty - 1;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Store cells worth searching in the given array: in k-in-a-row games
+	 * only empty cells near placed signs (or the centre of empty board),
+	 * otherwise all empty cells
+	 * @param cells array big enough to hold all empty cells
+	 * @return number of candidate cells
+	 */
+	public int getCandidateCells(int[] cells) {
+		if (neighbours == null)
+			return getEmptyCells(cells);
+		if (emptyCount == dim * dim) {
+			cells[0] = (dim / 2) * dim + dim / 2;
+			return 1;
+		}
+		
+		int n = 0;
+		for (int w = 0; w < xBits.length; w++) {
+			long candidates = nearBits[w] & ~(xBits[w] | oBits[w]);
+			while (candidates != 0) {
+				cells[n++] = (w << 6) + Long.numberOfTrailingZeros(candidates);
+				candidates &= candidates - 1;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Get deep copy of TTTBoard without board listeners
 	 */
 	@Override
 	public TTTBoard clone() {
 		try {
 			TTTBoard board = (TTTBoard) super.clone();
-			board.gridStatus = new Status[dim][];
-			for (int i = 0; i < dim; ++i)
-				board.gridStatus[i] = Arrays.copyOf(gridStatus[i], dim);
+			board.xBits = xBits.clone();
+			board.oBits = oBits.clone();
+			board.lineCounts = lineCounts.clone();
+			board.hashes = hashes.clone();
+			board.threats = threats.clone();
+			board.xThreats = xThreats.clone();
+			board.oThreats = oThreats.clone();
+			board.listeners = null;
+			if (neighbours != null) {
+				board.neighbours = neighbours.clone();
+				board.nearBits = nearBits.clone();
+			}
 			return board;
 		} catch (CloneNotSupportedException e) {
 			throw new AssertionError(); // Should not happen
@@ -250,29 +871,27 @@ class TTTBoard implements Cloneable {
 	 * Human readable board representation
 	 */
 	@Override public String toString() {
-		String str = "Board (dim " + dim + "): " +
+		String str = "Board (dim " + dim + ", " + winLength + " in a row): " +
 				getGameResult();
-		for (Status[] status : gridStatus)
+		for (int row = 0; row < dim; row++) {
+			Status[] status = new Status[dim];
+			for (int col = 0; col < dim; col++)
+				status[col] = getGridStatus(row, col);
 			str += "\n" + Arrays.toString(status);
+		}
 		return str;
 	}
 	
 	// Other shared data related to the board and game
-	public JPanel getGridPanel(int col, int row) {
-		return gridPanel[row][col];
+	public synchronized void addBoardListener(BoardListener listener) {
+		if (listeners == null)
+			listeners = new CopyOnWriteArrayList<>();
+		listeners.add(listener);
 	}
 
-	public void assignPanelToGrid(int col, int row, JPanel jp) {
-		gridPanel[row][col] = jp;
-	}
-	
-	/**
-	 * Repaint whole board
-	 */
-	public void repaint() {
-		for (int row = 0; row < dim; row++)
-			for (int col = 0; col < dim; col++)
-				gridPanel[row][col].repaint();
+	public synchronized void removeBoardListener(BoardListener listener) {
+		if (listeners != null)
+			listeners.remove(listener);
 	}
 
 	/**
@@ -299,80 +918,208 @@ class TTTBoard implements Cloneable {
 	}
 }
 
-/**
- * Scoring values for MiniMax algorithm 
- */
-class MiniMaxScores {
-	Map<Status, Integer> scores;
-	
-	public MiniMaxScores() {
-		scores = new HashMap<>();
-		scores.put(Status.PLAYER_X, 1);
-		scores.put(Status.DRAW, 0);
-		scores.put(Status.PLAYER_O, -1);
-	}
-	
-	public int getScore(Status status) {
-		return scores.get(status);
-	}
-}
-
 /*
  * Tic Tac Toe AI algorithm
  */
 public class TTTModel {
+	// Search results shared by all computer moves
+	private static final TranspositionTable transpositionTable = new TranspositionTable(16);
+	// Budget of every computer move
+	private static volatile SearchLimits moveLimits = SearchLimits.ofMillis(1000);
+	// Search running on more than one thread, null if single threaded
+	private static ParallelSearch parallelSearch = createParallelSearch(Runtime.getRuntime().availableProcessors());
+	// Used by getBestMove instead of alpha-beta search if not null
+	private static MonteCarloSearch monteCarloSearch;
+	// Steps of getBestMove, shared with GameServer and PositionAnalyzer
+	private static final MoveEngine engine = new GameEngine();
+	// Replies found while pondering, keyed by position hash with the computer to move
+	private static final Map<Long, Move> ponderedMoves = new ConcurrentHashMap<>();
+	private static volatile boolean pondering = true;
+	
 	private TTTModel() {
 	}
+	
+	/**
+	 * @return search limits used by makeNextMove
+	 */
+	public static SearchLimits getMoveLimits() {
+		return moveLimits;
+	}
+	
+	/**
+	 * Set search limits used by makeNextMove
+	 * @param limits
+	 */
+	public static void setMoveLimits(SearchLimits limits) {
+		moveLimits = limits;
+	}
+	
+	public static boolean isPondering() {
+		return pondering;
+	}
+	
+	/**
+	 * Enable or disable searching on the opponent's time
+	 * @param enabled
+	 */
+	public static void setPondering(boolean enabled) {
+		pondering = enabled;
+		if (!enabled)
+			ponderedMoves.clear();
+	}
+	
+	/**
+	 * Set number of threads used by getBestMove
+	 * @param threads
+	 */
+	public static synchronized void setSearchThreads(int threads) {
+		if (parallelSearch != null)
+			parallelSearch.shutdown();
+		parallelSearch = createParallelSearch(threads);
+	}
+	
+	private static ParallelSearch createParallelSearch(int threads) {
+		return threads > 1 ? new ParallelSearch(transpositionTable, threads) : null;
+	}
+	
+	/**
+	 * Use Monte Carlo tree search instead of alpha-beta search in getBestMove,
+	 * it plays large boards better within short time limits
+	 * @param enabled
+	 */
+	public static synchronized void setMonteCarlo(boolean enabled) {
+		if (monteCarloSearch != null)
+			monteCarloSearch.shutdown();
+		monteCarloSearch = enabled
+				? new MonteCarloSearch(1 << 20, Runtime.getRuntime().availableProcessors()) : null;
+	}
+	
+	public static synchronized boolean isMonteCarlo() {
+		return monteCarloSearch != null;
+	}
 
-	/*
-	 * @param
+	/**
+	 * Find the best move using alpha-beta search of the whole game tree
 	 * 
-	 * @return an object with 2 elements. The first element is the score of the
-	 * given board and the second element is the desired move as a Move object
+	 * @param board
+	 * @param player
+	 * @return the best move for given player with score given from PLAYER_X
+	 * point of view: positive if PLAYER_X wins, the faster the win the higher
+	 * the score, negative if PLAYER_O wins and 0 for a draw
+	 * @throws InterruptedException
 	 */
 	public static Move getMiniMaxMove(TTTBoard board, Status player) throws InterruptedException {
-		MiniMaxScores miniMaxScores = new MiniMaxScores();
-		List<Move> moves = new ArrayList<>();
+		return new AlphaBetaSearch(transpositionTable).findBestMove(board, player);
+	}
+	
+	/**
+	 * Find the best move by the steps of MoveEngine: immediate wins, moves
+	 * on 3x3 boards and on 4x4 boards once the table is loaded are read from
+	 * precomputed tables, on larger boards forced wins are first looked for
+	 * by proof-number search, then iterative deepening alpha-beta search
+	 * (parallel or Monte Carlo one if enabled) uses the rest of the limits
+	 * 
+	 * @param board
+	 * @param player
+	 * @param limits
+	 * @return the best move found within given limits, scored as
+	 * by getMiniMaxMove, or null if there is no move
+	 * @throws InterruptedException
+	 */
+	public static synchronized Move getBestMove(TTTBoard board, Status player, SearchLimits limits) throws InterruptedException {
+		return engine.findBestMove(board, player, limits);
+	}
+	
+	/*
+	 * Steps of MoveEngine recorded in engine metrics, the search is
+	 * parallel or Monte Carlo one if enabled. Used under the TTTModel lock.
+	 */
+	private static class GameEngine extends MoveEngine {
+		GameEngine() {
+			super(transpositionTable);
+		}
 		
-		List<Move> potentialMoves = board.getPotentialMoves();
-		Collections.shuffle(potentialMoves);
+		@Override
+		protected Move findKnownMove(TTTBoard board, Status player) {
+			Move move = super.findKnownMove(board, player);
+			if (move != null)
+				EngineMetrics.recordTableMove();
+			return move;
+		}
 		
-		Move move, dummyMove;
-		TTTBoard boardClone;
-		Status gameResult;
-		int score;
-		while (potentialMoves.size() > 0) {
-			if(Thread.currentThread().isInterrupted()) throw new InterruptedException();
-			move = potentialMoves.remove(potentialMoves.size()-1);
-			boardClone = board.clone();
-			boardClone.makeMove(move, player);
-			gameResult = boardClone.getGameResult();
-			if (gameResult != Status.IN_PROGRESS) {
-				score = miniMaxScores.getScore(gameResult);
-				if (score * miniMaxScores.getScore(player) == 1) {
-					move.setScore(score);
-					return move;  
-				}
-			} else {
-				dummyMove = getMiniMaxMove(boardClone, ModelUtils.switch_player(player));
-				score = dummyMove.getScore();
-				move.setScore(score);
-				if (score * miniMaxScores.getScore(player) == 1) {
-					return move;  
-				}
+		@Override
+		protected Move proveWin(ProofNumberSearch proofSearch, TTTBoard board, Status player, SearchLimits limits)
+				throws InterruptedException {
+			ProofSearchEvent event = new ProofSearchEvent();
+			event.dimension = board.getDimension();
+			event.winLength = board.getWinLength();
+			event.begin();
+			long start = System.nanoTime();
+			
+			Move move = null;
+			boolean cancelled = true;
+			try {
+				move = super.proveWin(proofSearch, board, player, limits);
+				cancelled = false;
+			} finally {
+				EngineMetrics.recordProofSearch(event, proofSearch.getIterations(), System.nanoTime() - start,
+						move != null, cancelled);
 			}
-			moves.add(move);
+			return move;
 		}
-		// Choose appropriate move based on current player
-		moves.sort(null);
-		if (player == Status.PLAYER_X) {
-			// set move to one with max score 
-			move = moves.get(moves.size() - 1);
-		} else {
-			// set move to one with min score 
-			move = moves.get(0);
+		
+		@Override
+		protected Move search(TTTBoard board, Status player, SearchLimits limits) throws InterruptedException {
+			if (monteCarloSearch != null)
+				return getMonteCarloMove(board, player, limits);
+			
+			SearchEvent event = new SearchEvent();
+			event.dimension = board.getDimension();
+			event.winLength = board.getWinLength();
+			event.threads = parallelSearch != null ? parallelSearch.getThreads() : 1;
+			long hits = transpositionTable.getHits(), misses = transpositionTable.getMisses();
+			event.begin();
+			long start = System.nanoTime();
+			
+			AlphaBetaSearch search = parallelSearch == null ? getAlphaBetaSearch() : null;
+			Move move = null;
+			boolean cancelled = true;
+			try {
+				move = search != null ? super.search(board, player, limits)
+						: parallelSearch.findBestMove(board, player, limits);
+				cancelled = false;
+			} finally {
+				long nodes = search != null ? search.getNodes() : parallelSearch.getNodes();
+				int depth = search != null ? search.getCompletedDepth() : parallelSearch.getCompletedDepth();
+				event.move = String.valueOf(move);
+				EngineMetrics.recordSearch(event, nodes, depth, System.nanoTime() - start,
+						transpositionTable.getHits() - hits, transpositionTable.getMisses() - misses, cancelled);
+			}
+			return move;
+		}
+	}
+	
+	/*
+	 * Monte Carlo search, playouts are counted as nodes in engine metrics
+	 */
+	private static Move getMonteCarloMove(TTTBoard board, Status player, SearchLimits limits) throws InterruptedException {
+		SearchEvent event = new SearchEvent();
+		event.dimension = board.getDimension();
+		event.winLength = board.getWinLength();
+		event.threads = monteCarloSearch.getThreads();
+		event.begin();
+		long start = System.nanoTime();
+		
+		Move move = null;
+		boolean cancelled = true;
+		try {
+			move = monteCarloSearch.findBestMove(board, player, limits);
+			cancelled = false;
+		} finally {
+			event.move = String.valueOf(move);
+			EngineMetrics.recordSearch(event, monteCarloSearch.getPlayouts(), 0,
+					System.nanoTime() - start, 0, 0, cancelled);
 		}
-		//System.out.println(moves);
 		return move;
 	}
 	
@@ -382,18 +1129,12 @@ public class TTTModel {
 	 * @return winning move for given board and player or null if not exists
 	 */
 	public static Move getNextWinningMove(TTTBoard board, Status player) {
-		List<Move> potentialMoves = board.getPotentialMoves();
-		TTTBoard boardClone;
-		Move move;
-		
-		while (potentialMoves.size() > 0) {
-			move = potentialMoves.remove(potentialMoves.size()-1);
-			boardClone = board.clone();
-			boardClone.makeMove(move, player);
-			if (boardClone.getGameResult() == player) return move;
-		}
+		if (board.isGameOver()) return null;
 		
-		return null;
+		// Looked up in the threat index of the board
+		int cell = board.getThreatCell(player);
+		if (cell < 0) return null;
+		return new Move(cell / board.getDimension(), cell % board.getDimension());
 	}
 	
 	/**
@@ -435,24 +1176,67 @@ public class TTTModel {
 			return move;
 		}
 		
-		// Speed up finding move for boards with dimension > 3 and 
-		// first move for board with dim = 3
-		if (board.getPotentialMoves().size() > 8) {
-			move = getNextWinningMove(board, ModelUtils.switch_player(player));
-			if (move != null) { // Block opponent winning move if exists
-				board.makeMove(move, player);
-				return move;
-			} else { // or if not exists
-				return makeNextRandomMove(board, player);
-			}
+		// Block the opponent's win, any other move loses
+		move = getNextWinningMove(board, ModelUtils.switch_player(player));
+		if (move != null) {
+			board.makeMove(move, player);
+			return move;
+		}
+		
+		// Reply found while the opponent was thinking
+		move = ponderedMoves.get(board.getHash(player));
+		if (move != null && board.getGridStatus(move.getRow(), move.getCol()) == Status.EMPTY) {
+			board.makeMove(move, player);
+			return move;
 		}
 		
-		// Make minimax move
-		move = getMiniMaxMove(board, player);
+		// Make the best move found within move limits
+		move = getBestMove(board, player, moveLimits);
 		board.makeMove(move, player);
 		return move;
 	}
 
+	/**
+	 * Search replies to the opponent moves on the opponent's time, starting
+	 * with the most likely one. Replies are found within move limits and
+	 * played by makeNextMove without searching again, other positions are
+	 * found faster thanks to the filled transposition table. Runs until
+	 * every candidate opponent move is answered or the thread is interrupted.
+	 *
+	 * @param board position with the opponent to move, not changed
+	 * @param opponent
+	 * @throws InterruptedException
+	 */
+	public static void ponder(TTTBoard board, Status opponent) throws InterruptedException {
+		ponderedMoves.clear();
+		if (board.isGameOver()) return;
+		
+		Status player = ModelUtils.switch_player(opponent);
+		int dim = board.getDimension();
+		int[] cells = new int[dim * dim];
+		int count = board.getCandidateCells(cells);
+		Move expected = getBestMove(board, opponent, moveLimits);
+		for (int i = 0; i < count; i++) {
+			if (expected != null && cells[i] == expected.getRow() * dim + expected.getCol()) {
+				cells[i] = cells[0];
+				cells[0] = expected.getRow() * dim + expected.getCol();
+			}
+		}
+		
+		for (int i = 0; i < count; i++) {
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			TTTBoard position = board.clone();
+			position.makeMove(cells[i], opponent);
+			// Won and lost positions are answered at once anyway
+			if (position.isGameOver() || getNextWinningMove(position, player) != null)
+				continue;
+			Move reply = getBestMove(position, player, moveLimits);
+			if (reply != null)
+				ponderedMoves.put(position.getHash(player), reply);
+		}
+	}
+	
 	public static void main(String[] args) throws InterruptedException {
 		System.out.println("Basic TTTBoard tests:");
 		TTTBoard b = new TTTBoard();
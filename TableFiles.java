@@ -0,0 +1,84 @@
+package games.tictactoe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.function.Supplier;
+
+/**
+ * Files of precomputed tables shared by SolvedTable3x3 and SolvedTable4x4
+ *
+ * Tables are kept in the tables directory (system property
+ * "tictactoe.tables", ~/.tictactoe by default). Every file starts with
+ * an 8 byte header: magic number of the table and number of positions.
+ * File missing or not matching the header is generated again and written
+ * atomically, then the file is memory-mapped.
+ */
+final class TableFiles {
+	static final int HEADER_SIZE = 8;
+
+	private TableFiles() {
+	}
+
+	/**
+	 * @return directory holding precomputed tables
+	 */
+	public static Path directory() {
+		String dir = System.getProperty("tictactoe.tables");
+		return dir != null ? Paths.get(dir) : Paths.get(System.getProperty("user.home"), ".tictactoe");
+	}
+
+	/**
+	 * Map table file, generating it first if it is missing or invalid
+	 *
+	 * @param file
+	 * @param magic
+	 * @param positions
+	 * @param size file size including the header
+	 * @param generator creates the table with its header
+	 * @return read-only table, or the generated one on the heap if
+	 * the file cannot be written or read
+	 */
+	public static ByteBuffer load(Path file, int magic, int positions, int size, Supplier<ByteBuffer> generator) {
+		try {
+			if (!isValid(file, magic, positions, size))
+				write(file, generator.get());
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+		} catch (IOException e) {
+			// Tables directory is not writable, keep the table on the heap
+			System.out.println("Cannot use " + file + ": " + e);
+			return generator.get();
+		}
+	}
+
+	/**
+	 * Write table replacing the file atomically
+	 *
+	 * @param file
+	 * @param table
+	 * @throws IOException
+	 */
+	public static void write(Path file, ByteBuffer table) throws IOException {
+		Files.createDirectories(file.getParent());
+		Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+			table.rewind();
+			while (table.hasRemaining())
+				channel.write(table);
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static boolean isValid(Path file, int magic, int positions, int size) throws IOException {
+		if (!Files.isRegularFile(file) || Files.size(file) != size)
+			return false;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			channel.read(header, 0);
+			return header.getInt(0) == magic && header.getInt(4) == positions;
+		}
+	}
+}
@@ -0,0 +1,308 @@
+package games.tictactoe;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless tournament between computer players
+ *
+ * Every pair of the given strategies plays the given number of games,
+ * starting player alternates between games. Games are played in batches
+ * on a work-stealing pool using all processors. Results (wins, draws and
+ * losses of the first strategy), games per second and per-move latency
+ * of every strategy are printed at the end.
+ *
+ * Usage: Tournament [-games n] [-dim n] [-k n] [-nodes n] [-threads n] [strategy ...]
+ *
+ * Strategies: minimax (alpha-beta search limited to -nodes per move, full
+ * search if 0), mcts (Monte Carlo tree search with -nodes playouts per move,
+ * 10000 if 0), greedy (winning move if exists, random otherwise) and random.
+ */
+class Tournament {
+	private static final int BATCH = 256;
+
+	/**
+	 * Computer player
+	 */
+	interface Strategy {
+		/**
+		 * @param board position with the game in progress, must not be changed
+		 * @param player
+		 * @return cell (row * dim + col) to play
+		 */
+		int chooseCell(TTTBoard board, Status player) throws InterruptedException;
+	}
+
+	/**
+	 * Uniformly random empty cell
+	 */
+	static class RandomStrategy implements Strategy {
+		private final ThreadLocal<int[]> cells;
+
+		RandomStrategy(int dim) {
+			cells = ThreadLocal.withInitial(() -> new int[dim * dim]);
+		}
+
+		@Override
+		public int chooseCell(TTTBoard board, Status player) {
+			int[] empty = cells.get();
+			int n = board.getEmptyCells(empty);
+			return empty[ThreadLocalRandom.current().nextInt(n)];
+		}
+	}
+
+	/**
+	 * Winning move found by TTTModel.getNextWinningMove, random one otherwise
+	 */
+	static class GreedyStrategy extends RandomStrategy {
+		GreedyStrategy(int dim) {
+			super(dim);
+		}
+
+		@Override
+		public int chooseCell(TTTBoard board, Status player) {
+			Move move = TTTModel.getNextWinningMove(board, player);
+			if (move != null)
+				return move.getRow() * board.getDimension() + move.getCol();
+			return super.chooseCell(board, player);
+		}
+	}
+
+	/**
+	 * Alpha-beta search, every thread has its own search sharing one table
+	 */
+	static class MiniMaxStrategy implements Strategy {
+		private final SearchLimits limits;
+		private final ThreadLocal<AlphaBetaSearch> searches;
+
+		MiniMaxStrategy(TranspositionTable table, SearchLimits limits) {
+			this.limits = limits;
+			searches = ThreadLocal.withInitial(() -> new AlphaBetaSearch(table));
+		}
+
+		@Override
+		public int chooseCell(TTTBoard board, Status player) throws InterruptedException {
+			Move move = searches.get().findBestMove(board, player, limits);
+			return move.getRow() * board.getDimension() + move.getCol();
+		}
+	}
+
+	/**
+	 * Monte Carlo tree search, every thread has its own single threaded search
+	 */
+	static class MonteCarloStrategy implements Strategy {
+		private final SearchLimits limits;
+		private final ThreadLocal<MonteCarloSearch> searches;
+
+		MonteCarloStrategy(int nodes, SearchLimits limits) {
+			this.limits = limits;
+			searches = ThreadLocal.withInitial(() -> new MonteCarloSearch(nodes, 1));
+		}
+
+		@Override
+		public int chooseCell(TTTBoard board, Status player) throws InterruptedException {
+			Move move = searches.get().findBestMove(board, player, limits);
+			return move.getRow() * board.getDimension() + move.getCol();
+		}
+	}
+
+	/**
+	 * Histogram of durations with power of two nanosecond buckets
+	 */
+	static class Histogram {
+		private final long[] counts = new long[64];
+		private long total;
+		private long max;
+
+		void record(long nanos) {
+			counts[64 - Long.numberOfLeadingZeros(Math.max(1, nanos)) - 1]++;
+			total++;
+			max = Math.max(max, nanos);
+		}
+
+		synchronized void add(Histogram other) {
+			for (int i = 0; i < counts.length; i++)
+				counts[i] += other.counts[i];
+			total += other.total;
+			max = Math.max(max, other.max);
+		}
+
+		/**
+		 * @param fraction
+		 * @return upper bound of the bucket holding the given fraction of durations
+		 */
+		synchronized long percentile(double fraction) {
+			long rank = (long) Math.ceil(fraction * total);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank && seen > 0)
+					return Math.min(max, (2L << i) - 1);
+			}
+			return max;
+		}
+
+		synchronized String summary() {
+			return String.format("%d moves, p50 < %s, p90 < %s, p99 < %s, max %s", total,
+					format(percentile(0.5)), format(percentile(0.9)), format(percentile(0.99)), format(max));
+		}
+
+		private static String format(long nanos) {
+			return nanos < 10_000 ? nanos + " ns" : nanos < 10_000_000 ? nanos / 1000 + " us" : nanos / 1_000_000 + " ms";
+		}
+	}
+
+	/*
+	 * Results of games between two strategies, counted for the first one
+	 */
+	private static class Match {
+		final String first, second;
+		final AtomicLong wins = new AtomicLong(), draws = new AtomicLong(), losses = new AtomicLong();
+
+		Match(String first, String second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public String toString() {
+			long games = wins.get() + draws.get() + losses.get();
+			return String.format("%-8s vs %-8s W %d D %d L %d (score %.1f%%)", first, second,
+					wins.get(), draws.get(), losses.get(),
+					games == 0 ? 0 : 100.0 * (wins.get() + draws.get() / 2.0) / games);
+		}
+	}
+
+	private final int dim, winLength;
+	private final Map<String, Strategy> strategies = new LinkedHashMap<>();
+	private final Map<String, Histogram> latencies = new HashMap<>();
+
+	Tournament(int dim, int winLength) {
+		this.dim = dim;
+		this.winLength = winLength;
+	}
+
+	void addStrategy(String name, Strategy strategy) {
+		strategies.put(name, strategy);
+		latencies.put(name, new Histogram());
+	}
+
+	/**
+	 * Play games between every pair of strategies
+	 *
+	 * @param games number of games of every pair
+	 * @param threads
+	 * @return results of every pair
+	 */
+	List<Match> play(long games, int threads) throws InterruptedException {
+		List<Match> matches = new ArrayList<>();
+		List<String> names = new ArrayList<>(strategies.keySet());
+		for (int i = 0; i < names.size(); i++)
+			for (int j = i + 1; j < names.size(); j++)
+				matches.add(new Match(names.get(i), names.get(j)));
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			List<Future<?>> batches = new ArrayList<>();
+			for (Match match : matches)
+				for (long first = 0; first < games; first += BATCH) {
+					long start = first, end = Math.min(games, first + BATCH);
+					batches.add(pool.submit(() -> {
+						playBatch(match, start, end);
+						return null;
+					}));
+				}
+			for (Future<?> batch : batches)
+				batch.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Game failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return matches;
+	}
+
+	/*
+	 * Play games with given numbers, first strategy starts even games
+	 */
+	private void playBatch(Match match, long start, long end) throws InterruptedException {
+		Strategy first = strategies.get(match.first), second = strategies.get(match.second);
+		Histogram firstLatency = new Histogram(), secondLatency = new Histogram();
+		TTTBoard board = new TTTBoard(dim, winLength);
+		for (long game = start; game < end; game++) {
+			board.reset();
+			boolean firstToMove = game % 2 == 0;
+			Status firstPlayer = firstToMove ? Status.PLAYER_X : Status.PLAYER_O;
+			Status player = Status.PLAYER_X;
+			while (!board.isGameOver()) {
+				long time = System.nanoTime();
+				int cell = (firstToMove ? first : second).chooseCell(board, player);
+				(firstToMove ? firstLatency : secondLatency).record(System.nanoTime() - time);
+				board.makeMove(cell, player);
+				player = ModelUtils.switch_player(player);
+				firstToMove = !firstToMove;
+			}
+
+			Status result = board.getGameResult();
+			if (result == Status.DRAW)
+				match.draws.incrementAndGet();
+			else if (result == firstPlayer)
+				match.wins.incrementAndGet();
+			else
+				match.losses.incrementAndGet();
+		}
+		latencies.get(match.first).add(firstLatency);
+		latencies.get(match.second).add(secondLatency);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		long games = 10000, nodes = 0;
+		int dim = 3, winLength = 0, threads = Runtime.getRuntime().availableProcessors();
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-games": games = Long.parseLong(args[++i]); break;
+			case "-dim": dim = Integer.parseInt(args[++i]); break;
+			case "-k": winLength = Integer.parseInt(args[++i]); break;
+			case "-nodes": nodes = Long.parseLong(args[++i]); break;
+			case "-threads": threads = Integer.parseInt(args[++i]); break;
+			default: names.add(args[i]);
+			}
+		}
+		if (winLength == 0)
+			winLength = dim;
+		if (names.isEmpty())
+			names.addAll(Arrays.asList("minimax", "greedy", "random"));
+
+		Tournament tournament = new Tournament(dim, winLength);
+		TranspositionTable table = new TranspositionTable(64);
+		for (String name : names) {
+			switch (name) {
+			case "minimax": tournament.addStrategy(name, new MiniMaxStrategy(table, SearchLimits.ofNodes(nodes))); break;
+			case "mcts": tournament.addStrategy(name, new MonteCarloStrategy(1 << 18,
+					SearchLimits.ofNodes(nodes > 0 ? nodes : 10000))); break;
+			case "greedy": tournament.addStrategy(name, new GreedyStrategy(dim)); break;
+			case "random": tournament.addStrategy(name, new RandomStrategy(dim)); break;
+			default:
+				System.err.println("Unknown strategy " + name + ", use minimax, mcts, greedy or random");
+				System.exit(2);
+			}
+		}
+
+		System.out.println("Board " + dim + "x" + dim + ", " + winLength + " in a row, "
+				+ games + " games per pair on " + threads + " threads");
+		long start = System.nanoTime();
+		List<Match> matches = tournament.play(games, threads);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		long played = 0;
+		for (Match match : matches) {
+			System.out.println(match);
+			played += match.wins.get() + match.draws.get() + match.losses.get();
+		}
+		System.out.printf("%d games in %.1f s, %.0f games/s%n", played, seconds, played / seconds);
+		for (String name : names)
+			System.out.printf("%-8s %s%n", name, tournament.latencies.get(name).summary());
+	}
+}
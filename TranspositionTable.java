@@ -0,0 +1,183 @@
+package games.tictactoe;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transposition table for the game tree search
+ *
+ * Table has a fixed memory budget and is organized as buckets of two slots:
+ * the first one keeps the entry searched to the biggest depth (unless it
+ * comes from another search), the second one is always replaced. Every
+ * search gets its own age from newSearch and stores entries with it, so
+ * searches sharing the table from several threads do not change the age
+ * of each other.
+ *
+ * Every entry is packed into a single long. Slot key is stored XOR-ed with
+ * entry data, so torn writes from concurrent searches are detected as misses.
+ */
+class TranspositionTable {
+	public static final int BOUND_EXACT = 0;
+	public static final int BOUND_LOWER = 1;
+	public static final int BOUND_UPPER = 2;
+
+	public static final int NO_MOVE = -1;
+
+	private static final int BYTES_PER_SLOT = 16;
+	private static final int MAX_DEPTH = 0xFF;
+	private static final int MAX_AGE = 0xFF;
+
+	private final long[] keys;
+	private final long[] data;
+	private final int bucketMask;
+	// Age given to the last search started
+	private final AtomicInteger generation = new AtomicInteger();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder stores = new LongAdder();
+
+	/**
+	 * Create table using at most given number of megabytes
+	 * @param megabytes
+	 */
+	public TranspositionTable(int megabytes) {
+		long slots = Math.max(2, (long) megabytes * 1024 * 1024 / BYTES_PER_SLOT);
+		int size = Integer.highestOneBit((int) Math.min(slots, 1 << 30));
+		keys = new long[size];
+		data = new long[size];
+		bucketMask = size / 2 - 1;
+	}
+
+	/**
+	 * Look up entry stored for given position key
+	 *
+	 * @param key
+	 * @return packed entry or 0 if not found
+	 */
+	public long probe(long key) {
+		int slot = bucket(key);
+		for (int i = slot; i < slot + 2; i++) {
+			long entry = data[i];
+			if (entry != 0 && (keys[i] ^ entry) == key) {
+				hits.increment();
+				return entry;
+			}
+		}
+		misses.increment();
+		return 0;
+	}
+
+	/**
+	 * Store search result for given position key
+	 *
+	 * @param key
+	 * @param score score from the point of view of the player to move
+	 * @param bound one of BOUND_EXACT, BOUND_LOWER, BOUND_UPPER
+	 * @param depth remaining depth the score was searched to
+	 * @param move best move cell or NO_MOVE
+	 * @param age age of the storing search returned by newSearch
+	 */
+	public void store(long key, int score, int bound, int depth, int move, int age) {
+		long entry = pack(score, bound, Math.min(depth, MAX_DEPTH), move, age);
+		int slot = bucket(key);
+
+		long preferred = data[slot];
+		if (preferred == 0 || (keys[slot] ^ preferred) == key
+				|| depth >= depth(preferred) || entryAge(preferred) != age) {
+			// Keep previous deep entry in always-replace slot
+			if (preferred != 0 && (keys[slot] ^ preferred) != key) {
+				data[slot + 1] = preferred;
+				keys[slot + 1] = keys[slot];
+			}
+			data[slot] = entry;
+			keys[slot] = key ^ entry;
+		} else {
+			data[slot + 1] = entry;
+			keys[slot + 1] = key ^ entry;
+		}
+		stores.increment();
+	}
+
+	/**
+	 * Start new search, entries from other searches can be replaced
+	 * regardless of their depth
+	 *
+	 * @return age of the new search to store its entries with
+	 */
+	public int newSearch() {
+		return generation.incrementAndGet() & MAX_AGE;
+	}
+
+	/**
+	 * Remove all entries and reset counters
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0L);
+		Arrays.fill(data, 0L);
+		hits.reset();
+		misses.reset();
+		stores.reset();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getStores() {
+		return stores.sum();
+	}
+
+	/**
+	 * @return number of entries table can hold
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	@Override
+	public String toString() {
+		long h = getHits(), m = getMisses();
+		return "TT (" + capacity() + " entries): hits " + h + ", misses " + m
+				+ ", hit rate " + (h + m == 0 ? 0 : 100 * h / (h + m)) + "%";
+	}
+
+	private int bucket(long key) {
+		return ((int) (key ^ (key >>> 32)) & bucketMask) << 1;
+	}
+
+	// Entry layout: score (16 bits), bound (2), depth (8), move + 1 (16), age (8), valid bit
+	private static long pack(int score, int bound, int depth, int move, int age) {
+		return (score & 0xFFFFL)
+				| ((long) bound << 16)
+				| ((long) depth << 18)
+				| ((long) (move + 1) << 26)
+				| ((long) age << 42)
+				| (1L << 50);
+	}
+
+	public static int score(long entry) {
+		return (short) entry;
+	}
+
+	public static int bound(long entry) {
+		return (int) (entry >>> 16) & 0x3;
+	}
+
+	public static int depth(long entry) {
+		return (int) (entry >>> 18) & MAX_DEPTH;
+	}
+
+	public static int move(long entry) {
+		return ((int) (entry >>> 26) & 0xFFFF) - 1;
+	}
+
+	private static int entryAge(long entry) {
+		return (int) (entry >>> 42) & MAX_AGE;
+	}
+}